@@ -0,0 +1,28 @@
+package com.bwyap.network;
+
+/**
+ * Enumeration of what happens when a message is sent over a connection 
+ * which already has as many messages waiting to be written as its limit allows.
+ * Control messages are always queued.
+ * 
+ * <p>
+ * BLOCK:
+ * The sending thread waits until the queue drops below its limit.
+ * Server event loop and dispatcher threads never wait, and drop the oldest chat message instead
+ * 
+ * <p>
+ * DROP_OLDEST_CHAT:
+ * The oldest queued message which is not a control message is discarded
+ * 
+ * <p>
+ * KICK:
+ * The message is discarded and the client is kicked (servers only)
+ * 
+ * @author bwyap
+ *
+ */
+public enum OverflowPolicy {
+	BLOCK,
+	DROP_OLDEST_CHAT,
+	KICK
+}
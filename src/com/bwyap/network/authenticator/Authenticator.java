@@ -10,7 +10,7 @@ import java.util.UUID;
  */
 public abstract class Authenticator implements AuthenticatorInterface {
 	
-	protected UUID id; 
+	protected volatile UUID id; 
 	
 	public Authenticator(UUID id) { setUUID(id); }
 	
@@ -0,0 +1,99 @@
+package com.bwyap.network.authenticator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A credential store which remembers the users it has most recently verified,
+ * so that a user who reconnects is not checked against the slower store it wraps again.
+ * <p>
+ * For each of the recently verified users, the cache holds a SHA-256 digest of their password
+ * with a salt that is random for each instance, never the password itself.
+ * When the cache is full, the user who was verified least recently is forgotten.
+ * Failed checks are not cached.
+ * @author bwyap
+ *
+ */
+public class CachingCredentialStore implements CredentialStore {
+
+	private final CredentialStore store;
+	private final Map<String, byte[]> verified;
+	private final byte[] salt = new byte[16];
+	
+	
+	/**
+	 * Create a cache in front of a store.
+	 * @param store
+	 * @param capacity the number of users to remember
+	 */
+	public CachingCredentialStore(CredentialStore store, final int capacity) {
+		this.store = store;
+		this.verified = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > capacity;
+			}
+		};
+		new SecureRandom().nextBytes(salt);
+	}
+	
+	
+	@Override
+	public boolean verify(String name, String password) {
+		if (name == null || password == null) return false;
+		
+		byte[] digest = digest(password);
+		byte[] cached;
+		synchronized (verified) {
+			cached = verified.get(name);
+		}
+		if (cached != null && MessageDigest.isEqual(cached, digest)) return true;
+		
+		// The store is checked without holding the lock so that other users can be checked in parallel
+		if (!store.verify(name, password)) return false;
+		synchronized (verified) {
+			verified.put(name, digest);
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Computes the digest of a password which is kept in the cache.
+	 * @param password
+	 * @return
+	 */
+	private byte[] digest(String password) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			sha.update(salt);
+			return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	
+	/**
+	 * Forgets every user who has been verified,
+	 * such as after the credentials in the store have changed.
+	 */
+	public void clear() {
+		synchronized (verified) {
+			verified.clear();
+		}
+	}
+	
+	
+	@Override
+	public int size() {
+		return store.size();
+	}
+
+}
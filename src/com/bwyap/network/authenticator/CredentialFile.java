@@ -0,0 +1,259 @@
+package com.bwyap.network.authenticator;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * A credential store read from a file of salted password hashes.
+ * <p>
+ * The file is laid out as:
+ * <ol>
+ * 	<li> {@code MAGIC} (int)
+ * 	<li> the number of PBKDF2 iterations used to hash the passwords (int)
+ * 	<li> the number of users (int)
+ * 	<li> an index of the offset of each user's record, in order of name (int each)
+ * 	<li> the records: the length of the name (short), the name (UTF-8), the salt and the hash
+ * </ol>
+ * The file is mapped into memory rather than read. Opening it only checks that every record in the index
+ * lies within the file, so that a truncated or corrupt file fails to open rather than during authentication.
+ * A user is found by a binary search of the index, which reads O(log n) records. Passwords are checked by hashing them with the user's salt, which is
+ * deliberately slow; see {@code CachingCredentialStore} to avoid hashing again for recent users.
+ * <p>
+ * Files are created with {@code write}, or from a file of {@code name,password} lines by running this class.
+ * @author bwyap
+ *
+ */
+public class CredentialFile implements CredentialStore {
+
+	public static final int MAGIC = 0x42574344;
+	public static final int DEFAULT_ITERATIONS = 10000;
+	
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_LENGTH = 32;
+	private static final int HEADER_LENGTH = 12;
+	private static final int MAX_NAME_LENGTH = 0xFFFF;
+	
+	// Names are ordered by their UTF-8 bytes, compared unsigned, so the index can be searched without decoding them
+	private static final Comparator<String> ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			byte[] bytes = b.getBytes(StandardCharsets.UTF_8);
+			return compareBytes(a.getBytes(StandardCharsets.UTF_8), ByteBuffer.wrap(bytes), 0, bytes.length);
+		}
+	};
+	
+	private final ByteBuffer buffer;
+	private final int iterations;
+	private final int count;
+	
+	
+	/**
+	 * Open a credential file.
+	 * @param file
+	 * @throws IOException if the file cannot be read or is not a credential file
+	 */
+	public CredentialFile(File file) throws IOException {
+		MappedByteBuffer mapped;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		if (mapped.capacity() < HEADER_LENGTH || mapped.getInt(0) != MAGIC) {
+			throw new StreamCorruptedException("Not a credential file: " + file);
+		}
+		this.iterations = mapped.getInt(4);
+		this.count = mapped.getInt(8);
+		if (iterations <= 0 || count < 0 || HEADER_LENGTH + (long) count * 4 > mapped.capacity()) {
+			throw new StreamCorruptedException("Invalid credential file header: " + file);
+		}
+		
+		// Every record must lie within the file so that searching it can never read past the end
+		long records = HEADER_LENGTH + (long) count * 4;
+		for (int i = 0; i < count; i++) {
+			int record = mapped.getInt(HEADER_LENGTH + i * 4);
+			if (record < records || record + 2L > mapped.capacity() || 
+					record + 2L + (mapped.getShort(record) & 0xFFFF) + SALT_LENGTH + HASH_LENGTH > mapped.capacity()) {
+				throw new StreamCorruptedException("Invalid credential record " + i + ": " + file);
+			}
+		}
+		this.buffer = mapped;
+	}
+	
+	
+	@Override
+	public boolean verify(String name, String password) {
+		if (name == null || password == null) return false;
+		
+		int record = find(name.getBytes(StandardCharsets.UTF_8));
+		if (record < 0) return false;
+		
+		// The buffer is shared by every thread, so only absolute reads of a duplicate are used
+		ByteBuffer b = buffer.duplicate();
+		int start = record + 2 + (b.getShort(record) & 0xFFFF);
+		byte[] salt = new byte[SALT_LENGTH];
+		byte[] hash = new byte[HASH_LENGTH];
+		b.position(start);
+		b.get(salt).get(hash);
+		
+		return MessageDigest.isEqual(hash, hash(password, salt, iterations));
+	}
+	
+	
+	/**
+	 * Finds the record of a user with a binary search of the index.
+	 * @param name the name of the user in UTF-8
+	 * @return the offset of the record, or -1 if there is no such user
+	 */
+	private int find(byte[] name) {
+		int low = 0, high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int record = buffer.getInt(HEADER_LENGTH + mid * 4);
+			int c = compareBytes(name, buffer, record + 2, buffer.getShort(record) & 0xFFFF);
+		
+			if (c == 0) return record;
+			if (c < 0) high = mid - 1;
+			else low = mid + 1;
+		}
+		return -1;
+	}
+	
+	
+	/**
+	 * Compares a name with one stored in a buffer, byte by byte as unsigned values.
+	 * @param name
+	 * @param buffer
+	 * @param offset the position of the stored name
+	 * @param length the length of the stored name
+	 * @return
+	 */
+	private static int compareBytes(byte[] name, ByteBuffer buffer, int offset, int length) {
+		int n = Math.min(name.length, length);
+		for (int i = 0; i < n; i++) {
+			int c = (name[i] & 0xFF) - (buffer.get(offset + i) & 0xFF);
+			if (c != 0) return c;
+		}
+		return name.length - length;
+	}
+	
+	
+	@Override
+	public int size() {
+		return count;
+	}
+	
+	
+	/**
+	 * Gets the number of PBKDF2 iterations used to hash the passwords in the file.
+	 * @return
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+	
+	
+	/**
+	 * Hashes a password with PBKDF2.
+	 * @param password
+	 * @param salt
+	 * @param iterations
+	 * @return
+	 */
+	private static byte[] hash(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_LENGTH * 8);
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Unable to hash password: " + e.getMessage(), e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+	
+	
+	/**
+	 * Writes a credential file, hashing each password with a new random salt.
+	 * Hashing is deliberately slow, so writing a file of many users takes a while.
+	 * @param file
+	 * @param passwords the password of each user, by name
+	 * @param iterations the number of PBKDF2 iterations
+	 * @throws IOException
+	 */
+	public static void write(File file, Map<String, String> passwords, int iterations) throws IOException {
+		TreeMap<String, String> sorted = new TreeMap<String, String>(ORDER);
+		sorted.putAll(passwords);
+		
+		SecureRandom random = new SecureRandom();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(iterations);
+			out.writeInt(sorted.size());
+		
+			int offset = HEADER_LENGTH + sorted.size() * 4;
+			for (String name : sorted.keySet()) {
+				int length = name.getBytes(StandardCharsets.UTF_8).length;
+				if (length > MAX_NAME_LENGTH) throw new IllegalArgumentException("Name too long: " + name);
+				out.writeInt(offset);
+				offset += 2 + length + SALT_LENGTH + HASH_LENGTH;
+			}
+		
+			for (Map.Entry<String, String> user : sorted.entrySet()) {
+				byte[] name = user.getKey().getBytes(StandardCharsets.UTF_8);
+				byte[] salt = new byte[SALT_LENGTH];
+				random.nextBytes(salt);
+		
+				out.writeShort(name.length);
+				out.write(name);
+				out.write(salt);
+				out.write(hash(user.getValue(), salt, iterations));
+			}
+		}
+	}
+	
+	
+	/**
+	 * Creates a credential file from a file of {@code name,password} lines.
+	 * Usage: {@code CredentialFile <users> <credential file> [iterations]}
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: CredentialFile <users> <credential file> [iterations]");
+			return;
+		}
+		
+		Map<String, String> passwords = new TreeMap<String, String>();
+		try (BufferedReader in = new BufferedReader(new FileReader(args[0]))) {
+			for (String line; (line = in.readLine()) != null; ) {
+				int comma = line.indexOf(',');
+				if (comma > 0 && !line.startsWith("#")) passwords.put(line.substring(0, comma), line.substring(comma + 1));
+			}
+		}
+		
+		write(new File(args[1]), passwords, args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS);
+		System.out.println("Wrote " + passwords.size() + " users to " + args[1]);
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.bwyap.network.authenticator;
+
+/**
+ * A store of the credentials of the users who may connect to a server.
+ * A store is shared by every connection to a server, so it must be safe to use from many threads at once.
+ * @author bwyap
+ *
+ */
+public interface CredentialStore {
+
+	
+	/**
+	 * Checks the password of a user.
+	 * @param name
+	 * @param password
+	 * @return true if the user exists and the password is correct
+	 */
+	public boolean verify(String name, String password);
+	
+	
+	/**
+	 * Gets the number of users in the store.
+	 * @return
+	 */
+	public int size();
+
+}
@@ -1,6 +1,10 @@
 package com.bwyap.network.authenticator;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 import com.bwyap.network.message.MessagePacket;
 
@@ -37,6 +41,15 @@ import com.bwyap.network.message.MessagePacket;
  * 	<li> Client: use {@code isServerFull} to check server full message 
  * </ol>
  * 
+ * <p>
+ * 
+ * <b>Sharing</b><br>
+ * One authenticator is shared by all the connections to a server, which may authenticate clients in parallel.
+ * The server sets its ID once when the server is created, after which it cannot be changed,
+ * so implementations should not keep any other state that changes between handshakes.
+ * Credential checks which are slow, such as hashing a password, can be run on the server's 
+ * authentication pool (see {@code Server.setAuthenticationThreads}) using {@code authenticateResponseAsync}.
+ * 
  * @author bwyap
  *
  */
@@ -51,6 +64,40 @@ public abstract class ServerAuthenticator extends Authenticator implements Serve
 
 	@Override
 	public abstract boolean authenticateResponse(MessagePacket m);
+	
+	/**
+	 * Runs {@code authenticateResponse} on the executor.
+	 * This can be overridden by authenticators which check credentials with a service that is already asynchronous.
+	 * If the executor rejects the check, the future completes exceptionally.
+	 */
+	@Override
+	public CompletableFuture<Boolean> authenticateResponseAsync(final MessagePacket m, Executor executor) {
+		try {
+			return CompletableFuture.supplyAsync(new Supplier<Boolean>() {
+				@Override
+				public Boolean get() {
+					return authenticateResponse(m);
+				}
+			}, executor);
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<Boolean> rejected = new CompletableFuture<Boolean>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+	
+	/**
+	 * Sets the ID of the server.
+	 * The ID can only be set once, as the authenticator may be in use by several connections.
+	 * @throws IllegalStateException if the authenticator already has a different ID
+	 */
+	@Override
+	public synchronized void setUUID(UUID id) {
+		if (this.id != null && !this.id.equals(id)) {
+			throw new IllegalStateException("Authenticator already belongs to server " + this.id);
+		}
+		this.id = id;
+	}
 
 	@Override
 	public abstract MessagePacket generateResponse(UUID destinationID);
@@ -1,12 +1,17 @@
 package com.bwyap.network.authenticator;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import com.bwyap.network.message.MessagePacket;
 
 /**
  * Provides methods to be used the the Server to perform authentication handshakes.
  * The corresponding client should use the ClientAuthenticatorInterface.
+ * <p>
+ * A single instance is shared by every connection to a server, so its methods 
+ * may be called from many threads at once and must not change any state of the authenticator.
  * @author bwyap
  *
  */
@@ -32,6 +37,16 @@ public interface ServerAuthenticatorInterface extends AuthenticatorInterface {
 	 * @return
 	 */
 	public boolean authenticateResponse(MessagePacket m);
+	
+	
+	/**
+	 * Checks that an authentication message is valid without blocking the calling thread.
+	 * This is used instead of {@code authenticateResponse} when the server checks credentials on a separate pool.
+	 * @param m
+	 * @param executor the executor to run the check on
+	 * @return a future which completes with true if the authentication credentials are valid
+	 */
+	public CompletableFuture<Boolean> authenticateResponseAsync(MessagePacket m, Executor executor);
 
 
 	/**
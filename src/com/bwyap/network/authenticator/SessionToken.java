@@ -0,0 +1,44 @@
+package com.bwyap.network.authenticator;
+
+import com.bwyap.network.message.HandshakeExtensions;
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Carries the token which lets a client resume its session after its connection is lost.
+ * <p>
+ * The server adds a token to the response it sends to an authenticated client.
+ * A client which reconnects adds the last token it was given to its authenticator, and
+ * if the server still holds the session the client gets back the ID it was assigned.
+ * Like {@code Capabilities}, the token is carried as a {@code HandshakeExtensions} entry
+ * in the body of those packets, so the data that is given to the authenticator is left as it is.
+ * @author bwyap
+ *
+ */
+public final class SessionToken {
+
+	public static final String EXTENSION = "session";
+	
+	
+	private SessionToken() { }
+	
+	
+	/**
+	 * Adds a token to a handshake packet.
+	 * @param m
+	 * @param token
+	 */
+	public static void attach(MessagePacket m, String token) {
+		HandshakeExtensions.put(m, EXTENSION, token);
+	}
+	
+	
+	/**
+	 * Removes the token from a handshake packet, if it has one.
+	 * @param m
+	 * @return the token, or null if the packet did not have one
+	 */
+	public static String detach(MessagePacket m) {
+		return HandshakeExtensions.remove(m, EXTENSION);
+	}
+
+}
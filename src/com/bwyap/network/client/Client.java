@@ -2,24 +2,44 @@ package com.bwyap.network.client;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import com.bwyap.network.ConnectionState;
+import com.bwyap.network.OverflowPolicy;
 import com.bwyap.network.authenticator.ClientAuthenticator;
 import com.bwyap.network.authenticator.ClientAuthenticatorInterface;
+import com.bwyap.network.authenticator.SessionToken;
+import com.bwyap.network.codec.Capabilities;
+import com.bwyap.network.codec.FlushPolicy;
+import com.bwyap.network.codec.FramedPacketInput;
+import com.bwyap.network.codec.FramedPacketOutput;
+import com.bwyap.network.codec.MessageCodec;
+import com.bwyap.network.codec.ObjectPacketInput;
+import com.bwyap.network.codec.ObjectPacketOutput;
+import com.bwyap.network.codec.PacketInput;
+import com.bwyap.network.codec.PacketOutput;
+import com.bwyap.network.codec.ResetPolicy;
+import com.bwyap.network.codec.StatefulMessageCodec;
 import com.bwyap.network.interpreter.ClientInterpreter;
 import com.bwyap.network.interpreter.ConsoleClientInterpreter;
+import com.bwyap.network.message.LaneMessageQueue;
+import com.bwyap.network.message.MessageBatch;
 import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageRegistry;
+import com.bwyap.network.message.MessageQueue;
 import com.bwyap.network.message.MessageType;
+import com.bwyap.network.message.RingMessageQueue;
+import com.bwyap.utility.ThreadFactories;
 import com.bwyap.utility.interpreter.InterpreterInterface;
 
 /**
@@ -28,6 +48,19 @@ import com.bwyap.utility.interpreter.InterpreterInterface;
  * When it is run (ideally on a new thread), it will attempt to make a connection to the server at the specified location.
  * <p>
  * Upon a successful connection, the client will listen for messages from a server and send processes when appropriate on separate threads.
+ * <p>
+ * By default messages are sent as a Java serialization stream. 
+ * If a codec is set using {@code setCodec}, messages are sent as length-prefixed frames instead, 
+ * which is required to connect to a server running in selector mode.
+ * Framed clients exchange {@code Capabilities} with the server during authentication
+ * and can switch to a faster codec once they are connected (see {@code setPreferredCodecs}).
+ * <p>
+ * The client keeps the session token the server issued when it was authenticated. If the connection 
+ * is lost and the client is run again, the token is sent with the authenticator so that the server 
+ * can give back the same ID and the messages it was holding for the client.
+ * The token is discarded when the client disconnects or is kicked.
+ * <p>
+ * The threads used by the client are created by its {@code ThreadFactory}, which can be set to create virtual threads.
  * @author bwyap
  *
  */
@@ -54,8 +87,17 @@ public abstract class Client implements Runnable {
 	protected UUID serverID;
 
 	protected volatile boolean hasConnection = false;
-	protected ObjectOutputStream out = null;
-	protected ObjectInputStream in = null;
+	protected PacketOutput out = null;
+	protected PacketInput in = null;
+	protected MessageCodec codec = null;
+	protected List<MessageCodec> preferredCodecs = null;
+	protected volatile Capabilities capabilities;
+	protected MessageRegistry<Client> registry;
+	protected boolean fastHandshake = false;
+	protected String sessionToken;
+	protected ResetPolicy resetPolicy = ResetPolicy.DEFAULT;
+	protected FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+	protected Thread thread;
 	protected OutgoingProcessor outProcessor;
 	protected Thread outThread;
 	protected IncomingProcessor inProcessor;
@@ -63,12 +105,17 @@ public abstract class Client implements Runnable {
 	
 	protected Thread interpreterThread;
 	protected InterpreterInterface interpreter; 
+	protected ThreadFactory threadFactory = ThreadFactories.platform();
 	
-	protected PriorityBlockingQueue<MessagePacket> incomingMessageQueue = 
-			new PriorityBlockingQueue<MessagePacket>();
+	protected MessageQueue incomingMessageQueue = new LaneMessageQueue();
 	
-	protected PriorityBlockingQueue<MessagePacket> outgoingMessageQueue = 
-			new PriorityBlockingQueue<MessagePacket>();
+	protected LaneMessageQueue outgoingMessageQueue = new LaneMessageQueue();
+	
+	protected int outboundLimit = 1000;
+	protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	protected volatile int outboundPeak = 0;
+	private final Object outboundLock = new Object();
+	private volatile int blockedProducers = 0;
 	
 
 	public Client(String clientName, String serverAddress, int serverPort, ClientAuthenticator authenticator) {
@@ -80,6 +127,12 @@ public abstract class Client implements Runnable {
 	}
 	
 	
+	public Client(String clientName, String serverAddress, int serverPort, ClientAuthenticator authenticator, ThreadFactory threadFactory) {
+		this(clientName, serverAddress, serverPort, authenticator);
+		this.threadFactory = threadFactory;
+	}
+	
+	
 	public Client(String clientName, ClientAuthenticator authenticator) {
 		this.clientName = clientName;
 		this.serverAddress = "localhost";
@@ -103,14 +156,26 @@ public abstract class Client implements Runnable {
 	 * Start the thread to run the interpreter so that the user can enter commands to the client.
 	 */
 	public void runInterpreter() {
-		if (interpreterThread == null) interpreterThread = new Thread((ClientInterpreter) interpreter);
-		if (!interpreterThread.isAlive()) interpreterThread.start();
+		if (interpreterThread == null || !interpreterThread.isAlive()) {
+			interpreterThread = ThreadFactories.start(threadFactory, (ClientInterpreter) interpreter, "interpret");
+		}
 		else System.err.println("Error: Interpreter thread already running.");
 	}
 	
 	
+	/**
+	 * Start a thread which connects the client to the server.
+	 */
+	public void start() {
+		ThreadFactories.start(threadFactory, this, "client");
+	}
+	
+	
 	@Override
 	public void run() {
+		awaitThreads();
+		thread = Thread.currentThread();
+		
 		if (!openConnection()) {
 			logger.pushError("Unable to connect " + clientName + " to " + serverIP.toString() + ":" + serverPort);
 			return;
@@ -123,16 +188,23 @@ public abstract class Client implements Runnable {
 		try {
 			hasConnection = true;
 
-			out = new ObjectOutputStream(socket.getOutputStream());
-			in = new ObjectInputStream(socket.getInputStream());			
+			capabilities = null;
+			if (codec != null) {
+				// a stateful codec starts with no state on each new connection
+				MessageCodec c = codec instanceof StatefulMessageCodec ? ((StatefulMessageCodec) codec).newInstance() : codec;
+				out = new FramedPacketOutput(socket.getOutputStream(), c);
+				in = new FramedPacketInput(socket.getInputStream());
+			}
+			else {
+				out = new ObjectPacketOutput(socket.getOutputStream(), resetPolicy);
+				in = new ObjectPacketInput(socket.getInputStream());
+			}
 			
 			outProcessor = new OutgoingProcessor();
-			outThread = new Thread(outProcessor, "outgoing");
-			outThread.start();
+			outThread = ThreadFactories.start(threadFactory, outProcessor, "outgoing");
 			
 			inProcessor = new IncomingProcessor();
-			inThread = new Thread(inProcessor, "incoming");
-			inThread.start();
+			inThread = ThreadFactories.start(threadFactory, inProcessor, "incoming");
 			
 			// main loop for processing messages
 			while (hasConnection) {
@@ -145,6 +217,25 @@ public abstract class Client implements Runnable {
 	}
 	
 	
+	/**
+	 * Waits for the threads of a previous connection to finish, 
+	 * so that a client which is run again after its connection was lost does not share its queues with them.
+	 */
+	private void awaitThreads() {
+		for (Thread t : new Thread[] { thread, inThread, outThread }) {
+			if (t != null && t != Thread.currentThread() && t.isAlive()) {
+				t.interrupt();
+				try {
+					t.join(TimeUnit.MILLISECONDS.convert(TIMEOUT_LIMIT, TIMEOUT_UNIT));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	
 	/**
 	 * This method should be called every tick to handle any received messages.
 	 */
@@ -230,16 +321,65 @@ public abstract class Client implements Runnable {
 	 * @param m
 	 */
 	public void sendToServer(MessagePacket m) {
+		if (outboundLimit > 0 && outgoingMessageQueue.size() >= outboundLimit && (m.type == null || !m.type.isControl())) {
+			if (overflowPolicy == OverflowPolicy.DROP_OLDEST_CHAT) outgoingMessageQueue.pollBulk();
+			else {
+				synchronized (outboundLock) {
+					blockedProducers++;
+					try {
+						while (hasConnection && outgoingMessageQueue.size() >= outboundLimit) {
+							outboundLock.wait(TimeUnit.MILLISECONDS.convert(TIMEOUT_LIMIT, TIMEOUT_UNIT));
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} finally {
+						blockedProducers--;
+					}
+				}
+			}
+		}
+		
 		outgoingMessageQueue.offer(m);
+		int depth = outgoingMessageQueue.size();
+		if (depth > outboundPeak) outboundPeak = depth;
+	}
+	
+	
+	/**
+	 * Sends a typed message to the server.
+	 * @param message a message of a class registered in the message registry
+	 * @throws IOException if the message could not be encoded
+	 */
+	public void sendTyped(Object message) throws IOException {
+		sendToServer(registry.pack(serverAssignedID, serverID, message));
+	}
+	
+	
+	/**
+	 * Sends several messages to the server in a single batch packet.
+	 * The server unpacks the batch and processes the messages in order.
+	 * If the server did not advertise batching during authentication, the messages are sent one at a time.
+	 * @param packets messages which all have the same sender and receiver
+	 */
+	public void sendBatch(List<MessagePacket> packets) {
+		if (capabilities == null || !capabilities.supportsBatching()) {
+			for (MessagePacket p : packets) sendToServer(p);
+		}
+		else if (packets.size() == 1) sendToServer(packets.get(0));
+		else if (!packets.isEmpty()) sendToServer(MessageBatch.pack(packets));
 	}
 	
 	
 	/**
 	 * Perform the authentication handshake with the server to make a valid connection with the server.
 	 * Uses the Authenticator object. 
+	 * With the fast handshake the authenticator is sent before the request from the server arrives.
 	 */
 	private void authenticate() {
 		MessagePacket m = null;
+		
+		if (fastHandshake) sendAuthenticator();
 
 		// Wait for permission to connect
 		try {
@@ -251,6 +391,8 @@ public abstract class Client implements Runnable {
 		
 		// Check message
 		if (m != null) {
+			Capabilities advertised = Capabilities.detach(m);
+			
 			if (authenticator.isServerFull(m)) {
 				logger.pushError("Server full.");
 				
@@ -261,9 +403,7 @@ public abstract class Client implements Runnable {
 			//TODO handle other cases
 			else if (authenticator.isRequestingAuthentication(m)) {
 				// Send message
-				if (DEV_DEBUG) logger.pushCon("Sending authentication to server.");
-				MessagePacket authentication = authenticator.generateAuthenticator(null, clientName);
-				sendToServer(authentication);
+				if (!fastHandshake) sendAuthenticator();
 			
 				// Wait for connection confirmation
 				try {
@@ -276,14 +416,18 @@ public abstract class Client implements Runnable {
 				
 				// Authenticate message
 				if (m != null) {			
+					String token = SessionToken.detach(m);
 					if (authenticator.confirmAuthentication(m)) {
 						logger.pushCon("Connection successful <" + m.data[0] + ">");
 						
 						serverID = m.senderID;
 						serverAssignedID = m.receiverID;
+						sessionToken = token;
 						logger.pushInfo("Server ID: " + serverID);
 						logger.pushInfo("Assigned ID: " + serverAssignedID);
 						
+						if (advertised != null && codec != null) negotiate(advertised);
+						
 						//Change state
 						state = ConnectionState.CONNECTED;
 						authenticator.setUUID(serverAssignedID);
@@ -303,6 +447,33 @@ public abstract class Client implements Runnable {
 	}
 	
 	
+	/**
+	 * Sends the authenticator to the server, along with the capabilities of the client if it uses the framed format.
+	 */
+	private void sendAuthenticator() {
+		if (DEV_DEBUG) logger.pushCon("Sending authentication to server.");
+		MessagePacket authentication = authenticator.generateAuthenticator(null, clientName);
+		if (sessionToken != null) SessionToken.attach(authentication, sessionToken);
+		if (codec != null) Capabilities.attach(authentication, Capabilities.local());
+		sendToServer(authentication);
+	}
+	
+	
+	/**
+	 * Switches to the first preferred codec that the server can decode.
+	 * @param advertised the capabilities sent by the server
+	 */
+	private void negotiate(Capabilities advertised) {
+		capabilities = advertised;
+		
+		MessageCodec chosen = advertised.choose(preferredCodecs != null ? preferredCodecs : Collections.singletonList(codec));
+		if (chosen != null && chosen != codec && out instanceof FramedPacketOutput) {
+			if (DEV_DEBUG) logger.pushCon("Switching to codec " + chosen.getID());
+			((FramedPacketOutput) out).setCodec(chosen instanceof StatefulMessageCodec ? ((StatefulMessageCodec) chosen).newInstance() : chosen);
+		}
+	}
+	
+	
 	/**
 	 * Process messages sent to the client from the server.
 	 * This method should be extended to implement custom message handling.
@@ -314,7 +485,9 @@ public abstract class Client implements Runnable {
 			case MESSAGE_BROADCAST:
 				printMessage(m); break;
 			case KICK:
-				if (authenticator.gettingKicked(m)) kick(m); break;
+				if (fromServer(m) && authenticator.gettingKicked(m)) kick(m); break;
+			case TYPED:
+				processTypedMessage(m); break;
 			default:
 				logger.pushError("Unhandled message.");
 				break;
@@ -323,6 +496,30 @@ public abstract class Client implements Runnable {
 	}
 	
 	
+	/**
+	 * Checks whether a message was sent by the server the client is connected to.
+	 * Control messages from any other sender are ignored, since other clients can address messages to this one.
+	 * @param m
+	 * @return
+	 */
+	private boolean fromServer(MessagePacket m) {
+		return serverID != null && serverID.equals(m.senderID);
+	}
+	
+	
+	/**
+	 * Passes a typed message to its handler in the message registry.
+	 * @param m
+	 */
+	protected void processTypedMessage(MessagePacket m) {
+		try {
+			if (registry == null || !registry.dispatch(this, m)) logger.pushError("Unhandled typed message " + m.typeID + ".");
+		} catch (IOException e) {
+			logger.pushError("Received invalid typed message " + m.typeID + ": " + e.getMessage());
+		}
+	}
+	
+	
 	/**
 	 * Disconnects from the server as a result of a kick message from the server
 	 * @param m
@@ -330,6 +527,7 @@ public abstract class Client implements Runnable {
 	public void kick(MessagePacket m) {
 		logger.pushInfo("Kicked by server.");
 		logger.pushInfo("REASON: " + m.data[0]);
+		sessionToken = null;
 		terminateConnection();
 	}
 	
@@ -377,7 +575,7 @@ public abstract class Client implements Runnable {
 		}
 		
 		if (m != null) {
-			if (authenticator.disconnectAcknowledged(m)) {
+			if (fromServer(m) && authenticator.disconnectAcknowledged(m)) {
 				logger.pushInfo("Server acknowledged disconnect request.");
 			}
 		}
@@ -385,6 +583,7 @@ public abstract class Client implements Runnable {
 			logger.pushError("No response from server. Terminating connection.");
 		}
 		
+		sessionToken = null;
 		terminateConnection();
 	}
 	
@@ -490,6 +689,135 @@ public abstract class Client implements Runnable {
 	}
 	
 	
+	/**
+	 * Get the codec used to encode frames.
+	 * This is null if the client uses a Java serialization stream.
+	 * @return
+	 */
+	public MessageCodec getCodec() {
+		return codec;
+	}
+	
+	
+	/**
+	 * Set the codec used to encode frames.
+	 * Set this to null to use a Java serialization stream.
+	 * This cannot be changed while there is a connection.
+	 * @param codec
+	 */
+	public void setCodec(MessageCodec codec) {
+		this.codec = codec;
+	}
+	
+	
+	/**
+	 * Set the policy for resetting the stream sent to the server when using Java serialization.
+	 * This cannot be changed while there is a connection.
+	 * @param resetPolicy
+	 */
+	public void setResetPolicy(ResetPolicy resetPolicy) {
+		this.resetPolicy = resetPolicy;
+	}
+	
+	
+	/**
+	 * Set the codecs to switch to once the connection is authenticated, in order of preference.
+	 * The first codec that the server advertised it can decode is used. 
+	 * If this is not set, the client keeps using the codec set by {@code setCodec}.
+	 * This cannot be changed while there is a connection.
+	 * @param codecs
+	 */
+	public void setPreferredCodecs(MessageCodec... codecs) {
+		this.preferredCodecs = Arrays.asList(codecs.clone());
+	}
+	
+	
+	/**
+	 * Set how many queued messages are written to the server before the output is flushed.
+	 * This cannot be changed while there is a connection.
+	 * @param flushPolicy
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+	}
+	
+	
+	/**
+	 * Set whether the client sends its authenticator as soon as the connection is open
+	 * instead of waiting for the authentication request from the server.
+	 * The server still sends its request, which the client reads for the capabilities of the server, 
+	 * but the response arrives one round trip after connecting rather than two.
+	 * This can only be used with authenticators which do not depend on the contents of the request.
+	 * This cannot be changed while there is a connection.
+	 * @param fastHandshake
+	 */
+	public void setFastHandshake(boolean fastHandshake) {
+		this.fastHandshake = fastHandshake;
+	}
+	
+	
+	/**
+	 * Set the registry used to encode typed messages and handle those received from the server.
+	 * @param registry
+	 */
+	public void setMessageRegistry(MessageRegistry<Client> registry) {
+		this.registry = registry;
+	}
+	
+	
+	/**
+	 * Set the queue used to pass received packets to the client thread.
+	 * Only the incoming thread offers to this queue and only the client thread
+	 * takes from it, so it may be a {@link RingMessageQueue}.
+	 * This must be set before the client is started.
+	 * @param incomingMessageQueue
+	 */
+	public void setIncomingQueue(MessageQueue incomingMessageQueue) {
+		this.incomingMessageQueue = incomingMessageQueue;
+	}
+	
+	
+	/**
+	 * Set the limit on the number of messages waiting to be written to the server,
+	 * and what happens when a message is sent while the limit is reached.
+	 * By default at most 1000 messages wait and the sending thread blocks.
+	 * @param limit the limit, or 0 for no limit
+	 * @param policy {@code BLOCK} or {@code DROP_OLDEST_CHAT}
+	 */
+	public void setOutboundLimit(int limit, OverflowPolicy policy) {
+		if (policy == OverflowPolicy.KICK) throw new IllegalArgumentException("A client cannot kick the server.");
+		this.outboundLimit = limit;
+		this.overflowPolicy = policy;
+	}
+	
+	
+	/**
+	 * Gets the number of messages waiting to be written to the server.
+	 * @return
+	 */
+	public int getOutboundDepth() {
+		return outgoingMessageQueue.size();
+	}
+	
+	
+	/**
+	 * Gets the largest number of messages that have been waiting to be written to the server at once.
+	 * @return
+	 */
+	public int getOutboundPeak() {
+		return outboundPeak;
+	}
+	
+	
+	/**
+	 * Set the factory used to create the threads of the client.
+	 * @param threadFactory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	
 	/**
 	 * Get the current state of the connection.
 	 * @return
@@ -528,10 +856,19 @@ public abstract class Client implements Runnable {
 		public void run() {
 			while (hasConnection) {
 				try {
-					Object object = (MessagePacket) in.readObject();
-					MessagePacket packet = (MessagePacket) object;
-					incomingMessageQueue.offer(packet);
+					MessagePacket packet = in.readPacket();
 					logger.pushReceive("Received message from " + packet.senderID + " of type " + packet.type);
+					
+					if (packet.type == MessageType.BATCH) {
+						try {
+							for (MessagePacket p : MessageBatch.unpack(packet)) {
+								if (!queueIncoming(p)) break;
+							}
+						} catch (IllegalArgumentException e) {
+							logger.pushError("Received invalid batch: " + e.getMessage());
+						}
+					}
+					else queueIncoming(packet);
 				}
 				catch (EOFException e) {
 					if (DEV_DEBUG) e.printStackTrace(logger.getStream());
@@ -551,6 +888,22 @@ public abstract class Client implements Runnable {
 	}
 	
 	
+	/**
+	 * Puts a message received from the server in the incoming queue.
+	 * The connection is terminated if the message cannot be queued, which only happens
+	 * when the reader is interrupted while waiting for room in a ring buffer.
+	 * @param p
+	 * @return true if the message was queued
+	 */
+	private boolean queueIncoming(MessagePacket p) {
+		if (incomingMessageQueue.offer(p)) return true;
+		
+		logger.pushError("Dropped message from server: interrupted while waiting for room in the incoming queue.");
+		terminateConnection();
+		return false;
+	}
+	
+	
 	/**
 	 * A runnable class which checks constantly checks the outgoing queue
 	 * and sends any messages to the client as assigned by the server.
@@ -565,9 +918,24 @@ public abstract class Client implements Runnable {
 				try { 
 					MessagePacket p = outgoingMessageQueue.poll(TIMEOUT_LIMIT, TIMEOUT_UNIT);
 					if (p != null) {
-						out.writeObject(p);
-						logger.pushSend("Sent message to " + socket.getInetAddress() + ":" + socket.getPort());
+						// Write everything that is queued, then flush once
+						long started = System.currentTimeMillis();
+						int count = 0;
+						while (p != null) {
+							out.writePacket(p);
+							count++;
+							logger.pushSend("Sent message to " + socket.getInetAddress() + ":" + socket.getPort());
+							p = flushPolicy.next(outgoingMessageQueue, count, started);
+						}
+						out.flush();
+						
+						if (blockedProducers > 0) {
+							synchronized (outboundLock) {
+								outboundLock.notifyAll();
+							}
+						}
 					}
+					else out.idle();
 				} 
 				catch (EOFException e) {
 					if (DEV_DEBUG) e.printStackTrace(logger.getStream());
@@ -578,7 +946,10 @@ public abstract class Client implements Runnable {
 				catch (SocketException e) {
 					//Do nothing: assuming socket closed intentionally
 				}
-				catch (InterruptedException | IOException e) {
+				catch (InterruptedException e) {
+					// woken up to stop after the connection was terminated
+				}
+				catch (IOException e) {
 					e.printStackTrace();
 				}
 			}
@@ -0,0 +1,341 @@
+package com.bwyap.network.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageType;
+
+/**
+ * A compact binary codec for MessagePackets.
+ * <p>
+ * The body of a frame is laid out as:
+ * <ol>
+ * 	<li> timestamp (long)
+ * 	<li> flags (byte) marking which of the sender ID, receiver ID and data are present
+ * 	<li> sender ID (two longs, if present)
+ * 	<li> receiver ID (two longs, if present)
+ * 	<li> ordinal of the message type (byte)
+ * 	<li> number of data strings (varint, if present)
+ * 	<li> each data string as a varint length followed by its UTF-8 bytes. 
+ * 	A length of 0 is a null string, otherwise the length is one more than the number of bytes.
+ * 	<li> type ID (varint) and body as a varint length followed by its bytes (if typed)
+ * </ol>
+ * This avoids the class descriptors, object headers and reflection of Java serialization.
+ * @author bwyap
+ *
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+	public static final byte ID = 1;
+	
+	private static final int HAS_SENDER = 1;
+	private static final int HAS_RECEIVER = 2;
+	private static final int HAS_DATA = 4;
+	private static final int HAS_BODY = 8;
+	
+	private static final MessageType[] TYPES = MessageType.values();
+	
+	
+	@Override
+	public byte getID() {
+		return ID;
+	}
+	
+	
+	@Override
+	public byte[] encode(MessagePacket p) throws IOException {
+		byte[][] strings = null;
+		int size = 8 + 1 + 16 + 16 + 1 + 5;
+		
+		if (p.data != null) {
+			strings = new byte[p.data.length][];
+			for (int i = 0; i < p.data.length; i++) {
+				if (p.data[i] != null) {
+					strings[i] = p.data[i].getBytes(StandardCharsets.UTF_8);
+					size += strings[i].length;
+				}
+				size += 5;
+			}
+		}
+		
+		if (p.body != null) size += 10 + p.body.length;
+		
+		Writer w = new Writer(size);
+		w.writeLong(p.timestamp);
+		w.writeByte((p.senderID != null ? HAS_SENDER : 0) | (p.receiverID != null ? HAS_RECEIVER : 0) | 
+				(p.data != null ? HAS_DATA : 0) | (p.body != null ? HAS_BODY : 0));
+		if (p.senderID != null) w.writeUUID(p.senderID);
+		if (p.receiverID != null) w.writeUUID(p.receiverID);
+		w.writeByte(p.type != null ? p.type.ordinal() : 0xFF);
+		
+		if (strings != null) {
+			w.writeVarint(strings.length);
+			for (byte[] s : strings) {
+				if (s == null) w.writeVarint(0);
+				else {
+					w.writeVarint(s.length + 1);
+					w.write(s);
+				}
+			}
+		}
+		
+		if (p.body != null) w.writeBody(p.typeID, p.body);
+		
+		return w.toByteArray();
+	}
+	
+	
+	@Override
+	public MessagePacket decode(byte[] data, int offset, int length) throws IOException {
+		Reader r = new Reader(data, offset, length);
+		
+		long timestamp = r.readLong();
+		int flags = r.readByte();
+		UUID senderID = (flags & HAS_SENDER) != 0 ? r.readUUID() : null;
+		UUID receiverID = (flags & HAS_RECEIVER) != 0 ? r.readUUID() : null;
+		MessageType type = readType(r);
+		String[] strings = (flags & HAS_DATA) != 0 ? readStrings(r) : null;
+		
+		MessagePacket p = new MessagePacket(timestamp, senderID, receiverID, type, strings);
+		if ((flags & HAS_BODY) != 0) r.readBody(p);
+		return p;
+	}
+	
+	
+	/**
+	 * Decodes the header of a packet, leaving its data to be decoded the first time it is read.
+	 * The data is checked to be well formed but no strings are created.
+	 * @param data an array which is kept by the packet and must not be modified afterwards
+	 * @param offset
+	 * @param length
+	 * @return a {@code LazyPacket}
+	 * @throws IOException
+	 */
+	public MessagePacket decodeHeader(byte[] data, int offset, int length) throws IOException {
+		Reader r = new Reader(data, offset, length);
+		
+		long timestamp = r.readLong();
+		int flags = r.readByte();
+		UUID senderID = (flags & HAS_SENDER) != 0 ? r.readUUID() : null;
+		UUID receiverID = (flags & HAS_RECEIVER) != 0 ? r.readUUID() : null;
+		MessageType type = readType(r);
+		
+		int dataOffset = -1;
+		if ((flags & HAS_DATA) != 0) {
+			dataOffset = r.position;
+			int count = readCount(r);
+			for (int i = 0; i < count; i++) {
+				int n = r.readVarint();
+				if (n > 0) r.skip(n - 1);
+			}
+		}
+		
+		int typeID = 0;
+		byte[] body = null;
+		if ((flags & HAS_BODY) != 0) {
+			typeID = r.readVarint();
+			body = r.readBytes(r.readVarint());
+		}
+		
+		return new LazyPacket(timestamp, senderID, receiverID, type, typeID, body, this, data, offset, length, dataOffset);
+	}
+	
+	
+	/**
+	 * Decodes the data strings of a packet whose header was decoded by {@code decodeHeader}.
+	 * @param data
+	 * @param offset the start of the data
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	String[] decodeData(byte[] data, int offset, int length) throws IOException {
+		return readStrings(new Reader(data, offset, length));
+	}
+	
+	
+	private static MessageType readType(Reader r) throws IOException {
+		int ordinal = r.readByte();
+		if (ordinal != 0xFF && ordinal >= TYPES.length) {
+			throw new StreamCorruptedException("Unknown message type: " + ordinal);
+		}
+		return ordinal != 0xFF ? TYPES[ordinal] : null;
+	}
+	
+	
+	private static int readCount(Reader r) throws IOException {
+		int count = r.readVarint();
+		if (count < 0 || count > r.limit - r.position) throw new StreamCorruptedException("Invalid data length: " + count);
+		return count;
+	}
+	
+	
+	private static String[] readStrings(Reader r) throws IOException {
+		String[] strings = new String[readCount(r)];
+		for (int i = 0; i < strings.length; i++) {
+			int n = r.readVarint();
+			if (n > 0) strings[i] = r.readString(n - 1);
+		}
+		return strings;
+	}
+	
+	
+	/**
+	 * A minimal growable byte array writer.
+	 */
+	static class Writer {
+		
+		private byte[] buffer;
+		private int position = 0;
+		
+		
+		Writer(int capacity) {
+			buffer = new byte[capacity];
+		}
+		
+		
+		private void ensure(int n) {
+			if (position + n > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + n));
+			}
+		}
+		
+		
+		void writeByte(int b) {
+			ensure(1);
+			buffer[position++] = (byte) b;
+		}
+		
+		
+		void writeLong(long v) {
+			ensure(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (v >>> shift);
+			}
+		}
+		
+		
+		void writeUUID(UUID id) {
+			writeLong(id.getMostSignificantBits());
+			writeLong(id.getLeastSignificantBits());
+		}
+		
+		
+		void writeVarint(int v) {
+			ensure(5);
+			while ((v & ~0x7F) != 0) {
+				buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buffer[position++] = (byte) v;
+		}
+		
+		
+		void write(byte[] b) {
+			ensure(b.length);
+			System.arraycopy(b, 0, buffer, position, b.length);
+			position += b.length;
+		}
+		
+		
+		void writeBody(int typeID, byte[] body) {
+			writeVarint(typeID);
+			writeVarint(body.length);
+			write(body);
+		}
+		
+		
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+	}
+	
+	
+	/**
+	 * A minimal bounds-checked byte array reader.
+	 */
+	static class Reader {
+		
+		private final byte[] buffer;
+		private final int limit;
+		private int position;
+		
+		
+		Reader(byte[] buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.position = offset;
+			this.limit = offset + length;
+		}
+		
+		
+		private void require(int n) throws EOFException {
+			if (n < 0 || n > limit - position) throw new EOFException("Unexpected end of frame.");
+		}
+		
+		
+		int readByte() throws EOFException {
+			require(1);
+			return buffer[position++] & 0xFF;
+		}
+		
+		
+		long readLong() throws EOFException {
+			require(8);
+			long v = 0;
+			for (int i = 0; i < 8; i++) {
+				v = (v << 8) | (buffer[position++] & 0xFF);
+			}
+			return v;
+		}
+		
+		
+		UUID readUUID() throws EOFException {
+			return new UUID(readLong(), readLong());
+		}
+		
+		
+		int readVarint() throws IOException {
+			int v = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = readByte();
+				v |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) return v;
+			}
+			throw new StreamCorruptedException("Malformed varint.");
+		}
+		
+		
+		String readString(int n) throws EOFException {
+			require(n);
+			String s = new String(buffer, position, n, StandardCharsets.UTF_8);
+			position += n;
+			return s;
+		}
+		
+		
+		void readBody(MessagePacket p) throws IOException {
+			p.typeID = readVarint();
+			p.body = readBytes(readVarint());
+		}
+		
+		
+		byte[] readBytes(int n) throws EOFException {
+			require(n);
+			byte[] b = Arrays.copyOfRange(buffer, position, position + n);
+			position += n;
+			return b;
+		}
+		
+		
+		void skip(int n) throws EOFException {
+			require(n);
+			position += n;
+		}
+	}
+	
+}
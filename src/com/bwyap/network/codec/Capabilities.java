@@ -0,0 +1,185 @@
+package com.bwyap.network.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.bwyap.network.message.HandshakeExtensions;
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * The wire features that one end of a framed connection supports.
+ * <p>
+ * Capabilities are exchanged during the authentication handshake: the server adds its own
+ * to the authentication request and the client adds its own to its authenticator.
+ * They are carried as a {@code HandshakeExtensions} entry in the body of those packets,
+ * so the data that is given to the authenticator is left as it is.
+ * Peers which do not send capabilities are assumed to support only the codec they are using,
+ * which keeps clients from before the handshake was extended working as they are.
+ * <p>
+ * Once the handshake completes, each end switches to the first codec in its list of
+ * preferred codecs that the other end can decode.
+ * @author bwyap
+ *
+ */
+public final class Capabilities {
+
+	public static final String EXTENSION = "capabilities";
+	
+	private static final String CODECS = "codecs=";
+	private static final String DICTIONARIES = "dictionaries=";
+	private static final String BATCH = "batch";
+	
+	private final byte[] codecs;
+	private final int[] dictionaries;
+	private final boolean batching;
+	
+	
+	/**
+	 * Create a set of capabilities.
+	 * @param codecs the IDs of the codecs that can be decoded
+	 * @param dictionaries the IDs of the preset dictionaries that can be decoded
+	 * @param batching true if {@code BATCH} packets can be unpacked
+	 */
+	public Capabilities(byte[] codecs, int[] dictionaries, boolean batching) {
+		this.codecs = codecs.clone();
+		this.dictionaries = dictionaries.clone();
+		this.batching = batching;
+	}
+	
+	
+	/**
+	 * Gets the capabilities of this end of a connection:
+	 * all registered codecs and preset dictionaries, and batching.
+	 * @return
+	 */
+	public static Capabilities local() {
+		return new Capabilities(Codecs.getIDs(), DeflateMessageCodec.getDictionaryIDs(), true);
+	}
+	
+	
+	/**
+	 * Checks if frames from a codec can be decoded,
+	 * including the codec and dictionary used by a compressing codec.
+	 * @param codec
+	 * @return
+	 */
+	public boolean supports(MessageCodec codec) {
+		if (!supportsCodec(codec.getID())) return false;
+		
+		if (codec instanceof DeflateMessageCodec) {
+			DeflateMessageCodec deflate = (DeflateMessageCodec) codec;
+			if (deflate.getDictionaryID() != 0 && !supportsDictionary(deflate.getDictionaryID())) return false;
+			return supports(deflate.getCodec());
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Chooses the first codec in order of preference that can be decoded.
+	 * @param preferred
+	 * @return the codec, or null if none of them can be decoded
+	 */
+	public MessageCodec choose(List<MessageCodec> preferred) {
+		for (MessageCodec codec : preferred) {
+			if (supports(codec)) return codec;
+		}
+		return null;
+	}
+	
+	
+	private boolean supportsCodec(byte id) {
+		for (byte codec : codecs) if (codec == id) return true;
+		return false;
+	}
+	
+	
+	private boolean supportsDictionary(int id) {
+		for (int dictionary : dictionaries) if (dictionary == id) return true;
+		return false;
+	}
+	
+	
+	/**
+	 * Checks if {@code BATCH} packets can be unpacked.
+	 * @return
+	 */
+	public boolean supportsBatching() {
+		return batching;
+	}
+	
+	
+	/**
+	 * Adds capabilities to a handshake packet.
+	 * @param m
+	 * @param capabilities
+	 */
+	public static void attach(MessagePacket m, Capabilities capabilities) {
+		HandshakeExtensions.put(m, EXTENSION, capabilities.toString());
+	}
+	
+	
+	/**
+	 * Removes the capabilities from a handshake packet, if it has any.
+	 * @param m
+	 * @return the capabilities, or null if the packet did not have any
+	 */
+	public static Capabilities detach(MessagePacket m) {
+		String capabilities = HandshakeExtensions.remove(m, EXTENSION);
+		return capabilities != null ? parse(capabilities) : null;
+	}
+	
+	
+	/**
+	 * Reads capabilities from a string produced by {@code toString}.
+	 * Features which are not recognised are ignored so that newer peers can advertise more.
+	 * @param s
+	 * @return
+	 */
+	private static Capabilities parse(String s) {
+		List<Integer> codecs = new ArrayList<Integer>();
+		List<Integer> dictionaries = new ArrayList<Integer>();
+		boolean batching = false;
+		
+		for (String feature : s.split(";")) {
+			try {
+				if (feature.startsWith(CODECS)) {
+					for (String id : split(feature.substring(CODECS.length()))) codecs.add(Integer.parseInt(id));
+				}
+				else if (feature.startsWith(DICTIONARIES)) {
+					for (String id : split(feature.substring(DICTIONARIES.length()))) dictionaries.add(Integer.parseUnsignedInt(id, 16));
+				}
+				else if (feature.equals(BATCH)) batching = true;
+			} catch (NumberFormatException e) { }
+		}
+		
+		byte[] codecIDs = new byte[codecs.size()];
+		for (int i = 0; i < codecIDs.length; i++) codecIDs[i] = (byte) (int) codecs.get(i);
+		int[] dictionaryIDs = new int[dictionaries.size()];
+		for (int i = 0; i < dictionaryIDs.length; i++) dictionaryIDs[i] = dictionaries.get(i);
+		return new Capabilities(codecIDs, dictionaryIDs, batching);
+	}
+	
+	
+	private static String[] split(String list) {
+		return list.isEmpty() ? new String[0] : list.split(",");
+	}
+	
+	
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder(CODECS);
+		for (int i = 0; i < codecs.length; i++) {
+			if (i > 0) s.append(',');
+			s.append(codecs[i] & 0xFF);
+		}
+		s.append(';').append(DICTIONARIES);
+		for (int i = 0; i < dictionaries.length; i++) {
+			if (i > 0) s.append(',');
+			s.append(Integer.toHexString(dictionaries[i]));
+		}
+		if (batching) s.append(';').append(BATCH);
+		return s.toString();
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.bwyap.network.codec;
+
+/**
+ * Looks up the codec used to decode a frame from the ID in its header.
+ * Both ends of a connection can decode frames from any codec listed here, 
+ * so each end is free to choose which codec it sends with.
+ * @author bwyap
+ *
+ */
+public final class Codecs {
+
+	private static final MessageCodec[] CODECS = new MessageCodec[256];
+	
+	static {
+		register(new SerializedMessageCodec());
+		register(new BinaryMessageCodec());
+		register(new DeflateMessageCodec());
+		register(new DictionaryMessageCodec());
+	}
+	
+	
+	private Codecs() { }
+	
+	
+	/**
+	 * Registers a codec so that frames encoded with it can be decoded.
+	 * The codec must be safe to use from multiple threads, unless it is a {@code StatefulMessageCodec}
+	 * in which case each connection decodes with a new instance of it.
+	 * Codecs should be registered before any connections are opened.
+	 * @param codec
+	 */
+	public static synchronized void register(MessageCodec codec) {
+		CODECS[codec.getID() & 0xFF] = codec;
+	}
+	
+	
+	/**
+	 * Gets the codec with the specified ID.
+	 * @param id
+	 * @return the codec, or null if there is no codec with the ID
+	 */
+	public static MessageCodec get(byte id) {
+		return CODECS[id & 0xFF];
+	}
+	
+	
+	/**
+	 * Gets the IDs of all registered codecs.
+	 * @return
+	 */
+	public static synchronized byte[] getIDs() {
+		int count = 0;
+		for (MessageCodec codec : CODECS) if (codec != null) count++;
+		
+		byte[] ids = new byte[count];
+		count = 0;
+		for (int i = 0; i < CODECS.length; i++) if (CODECS[i] != null) ids[count++] = (byte) i;
+		return ids;
+	}
+	
+}
@@ -0,0 +1,489 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * A codec which compresses the body produced by another codec using {@code Deflater}.
+ * <p>
+ * The body of a frame is laid out as:
+ * <ol>
+ * 	<li> the ID of the codec which encoded the packet (byte)
+ * 	<li> {@code STORED} or {@code DEFLATED} (byte)
+ * 	<li> the length of the uncompressed body (int, if deflated)
+ * 	<li> the body of the packet, compressed if deflated
+ * </ol>
+ * Bodies shorter than the threshold, or which do not get any smaller, are stored as they are
+ * so that small packets do not pay for compression.
+ * <p>
+ * A preset dictionary of strings which are common in the traffic (see {@link #trainDictionary})
+ * improves the compression of small and medium sized packets. Dictionaries are identified by 
+ * their Adler-32 checksum, and the receiving end must have added the same dictionary 
+ * with {@link #addDictionary} to decode packets compressed with it.
+ * <p>
+ * Each instance counts the bytes it compresses and the time spent compressing,
+ * so it should not be shared between connections if the counts are to be read per connection.
+ * An instance reuses one {@code Deflater} and one {@code Inflater}, which hold native memory 
+ * until {@link #end} is called.
+ * @author bwyap
+ *
+ */
+public class DeflateMessageCodec implements MessageCodec {
+
+	public static final byte ID = 2;
+	public static final int DEFAULT_THRESHOLD = 256;
+	
+	private static final byte STORED = 0;
+	private static final byte DEFLATED = 1;
+	private static final int MAX_DICTIONARY = 32 * 1024;
+	private static final int GRAM_LENGTH = 6;
+	private static final int SEGMENT_LENGTH = 48;
+	
+	private static final Map<Integer, byte[]> DICTIONARIES = new ConcurrentHashMap<Integer, byte[]>();
+	
+	private final MessageCodec codec;
+	private final int threshold;
+	private final byte[] dictionary;
+	private final int dictionaryID;
+	private Deflater deflater;
+	private Inflater inflater;
+	
+	private final AtomicLong packets = new AtomicLong(0);
+	private final AtomicLong compressed = new AtomicLong(0);
+	private final AtomicLong bytesIn = new AtomicLong(0);
+	private final AtomicLong bytesOut = new AtomicLong(0);
+	private final AtomicLong compressNanos = new AtomicLong(0);
+	private final AtomicLong decompressNanos = new AtomicLong(0);
+	
+	
+	/**
+	 * Create a codec which compresses binary encoded packets of at least {@code DEFAULT_THRESHOLD} bytes.
+	 */
+	public DeflateMessageCodec() {
+		this(new BinaryMessageCodec(), DEFAULT_THRESHOLD, null);
+	}
+	
+	
+	/**
+	 * Create a codec without a preset dictionary.
+	 * @param codec the codec which encodes the packets before they are compressed
+	 * @param threshold the smallest body which is compressed
+	 */
+	public DeflateMessageCodec(MessageCodec codec, int threshold) {
+		this(codec, threshold, null);
+	}
+	
+	
+	/**
+	 * Create a codec.
+	 * @param codec the codec which encodes the packets before they are compressed
+	 * @param threshold the smallest body which is compressed
+	 * @param dictionary a preset dictionary, or null to not use one. It is added to the known dictionaries.
+	 */
+	public DeflateMessageCodec(MessageCodec codec, int threshold, byte[] dictionary) {
+		if (codec.getID() == ID || codec instanceof StatefulMessageCodec) {
+			throw new IllegalArgumentException("Can only compress the frames of a stateless codec.");
+		}
+		this.codec = codec;
+		this.threshold = threshold;
+		this.dictionary = dictionary != null ? dictionary.clone() : null;
+		this.dictionaryID = dictionary != null ? addDictionary(dictionary) : 0;
+	}
+	
+	
+	@Override
+	public byte getID() {
+		return ID;
+	}
+	
+	
+	@Override
+	public byte[] encode(MessagePacket p) throws IOException {
+		byte[] body = codec.encode(p);
+		packets.incrementAndGet();
+		bytesIn.addAndGet(body.length);
+		
+		byte[] frame = null;
+		if (body.length >= threshold) {
+			long start = System.nanoTime();
+			frame = deflate(body);
+			compressNanos.addAndGet(System.nanoTime() - start);
+		}
+		
+		if (frame == null) {
+			frame = new byte[2 + body.length];
+			frame[0] = codec.getID();
+			frame[1] = STORED;
+			System.arraycopy(body, 0, frame, 2, body.length);
+		}
+		else compressed.incrementAndGet();
+		
+		bytesOut.addAndGet(frame.length);
+		return frame;
+	}
+	
+	
+	/**
+	 * Compresses a body into a deflated frame body.
+	 * @param body
+	 * @return the frame body, or null if the body did not get any smaller
+	 */
+	private synchronized byte[] deflate(byte[] body) {
+		if (deflater == null) deflater = new Deflater();
+		else deflater.reset();
+		
+		if (dictionary != null) deflater.setDictionary(dictionary);
+		deflater.setInput(body);
+		deflater.finish();
+		
+		// Only worth sending if it is smaller than storing the body
+		byte[] frame = new byte[2 + body.length];
+		int length = 6;
+		while (!deflater.finished() && length < frame.length) {
+			length += deflater.deflate(frame, length, frame.length - length);
+		}
+		if (!deflater.finished()) return null;
+		
+		frame[0] = codec.getID();
+		frame[1] = DEFLATED;
+		ByteBuffer.wrap(frame, 2, 4).putInt(body.length);
+		
+		byte[] result = new byte[length];
+		System.arraycopy(frame, 0, result, 0, length);
+		return result;
+	}
+	
+	
+	@Override
+	public MessagePacket decode(byte[] data, int offset, int length) throws IOException {
+		if (length < 2) throw new StreamCorruptedException("Compressed body too short: " + length);
+		
+		MessageCodec inner = Codecs.get(data[offset]);
+		if (inner == null || inner.getID() == ID || inner instanceof StatefulMessageCodec) {
+			throw new StreamCorruptedException("Unsupported codec: " + data[offset]);
+		}
+		
+		if (data[offset + 1] == STORED) return inner.decode(data, offset + 2, length - 2);
+		if (data[offset + 1] != DEFLATED || length < 6) {
+			throw new StreamCorruptedException("Invalid compressed body");
+		}
+		
+		int size = ByteBuffer.wrap(data, offset + 2, 4).getInt();
+		if (size < 0 || size > Frame.MAX_LENGTH) {
+			throw new StreamCorruptedException("Invalid uncompressed length: " + size);
+		}
+		
+		long start = System.nanoTime();
+		byte[] body = inflate(data, offset + 6, length - 6, size);
+		decompressNanos.addAndGet(System.nanoTime() - start);
+		
+		return inner.decode(body, 0, size);
+	}
+	
+	
+	/**
+	 * Decompresses a deflated frame body.
+	 * The length in the frame is only trusted as an upper bound: the output buffer starts small
+	 * and grows as the body is inflated, so a short frame cannot make the codec allocate more 
+	 * than about twice what it actually decompresses to.
+	 * @param data
+	 * @param offset the start of the compressed bytes
+	 * @param length the number of compressed bytes
+	 * @param size the length of the uncompressed body given in the frame
+	 * @return an array holding the body in its first {@code size} bytes
+	 * @throws IOException if the body is invalid or does not decompress to exactly {@code size} bytes
+	 */
+	private synchronized byte[] inflate(byte[] data, int offset, int length, int size) throws IOException {
+		if (inflater == null) inflater = new Inflater();
+		else inflater.reset();
+		inflater.setInput(data, offset, length);
+		
+		// One byte more than the size is allowed so that a body which is too long is noticed
+		byte[] body = new byte[(int) Math.min(size + 1L, Math.max(4L * length, 256))];
+		int read = 0;
+		try {
+			while (!inflater.finished()) {
+				if (read == body.length) {
+					if (read > size) throw new StreamCorruptedException("Compressed body longer than " + size + " bytes");
+					body = Arrays.copyOf(body, (int) Math.min(size + 1L, 2L * body.length));
+				}
+				
+				int n = inflater.inflate(body, read, body.length - read);
+				if (n == 0) {
+					if (inflater.needsDictionary()) {
+						byte[] preset = DICTIONARIES.get(inflater.getAdler());
+						if (preset == null) throw new StreamCorruptedException("Unknown dictionary: " + Integer.toHexString(inflater.getAdler()));
+						inflater.setDictionary(preset);
+					}
+					else if (inflater.needsInput()) break;
+				}
+				read += n;
+			}
+		} catch (DataFormatException e) {
+			throw new StreamCorruptedException("Invalid compressed body: " + e.getMessage());
+		}
+		if (read != size || !inflater.finished()) throw new StreamCorruptedException("Compressed body does not match its length: " + size);
+		return body;
+	}
+	
+	
+	/**
+	 * Releases the native memory held by the compressor and decompressor of this codec.
+	 * They are created again if the codec is used afterwards.
+	 */
+	public synchronized void end() {
+		if (deflater != null) deflater.end();
+		if (inflater != null) inflater.end();
+		deflater = null;
+		inflater = null;
+	}
+	
+	
+	/**
+	 * Get the codec which encodes the packets before they are compressed.
+	 * @return
+	 */
+	public MessageCodec getCodec() {
+		return codec;
+	}
+	
+	
+	/**
+	 * Get the Adler-32 checksum which identifies the preset dictionary of this codec.
+	 * @return the ID of the dictionary, or 0 if the codec does not use one
+	 */
+	public int getDictionaryID() {
+		return dictionaryID;
+	}
+	
+	
+	/**
+	 * Adds a preset dictionary so that packets compressed with it can be decoded.
+	 * @param dictionary
+	 * @return the ID of the dictionary
+	 */
+	public static int addDictionary(byte[] dictionary) {
+		Adler32 adler = new Adler32();
+		adler.update(dictionary);
+		DICTIONARIES.put((int) adler.getValue(), dictionary.clone());
+		return (int) adler.getValue();
+	}
+	
+	
+	/**
+	 * Get the IDs of the preset dictionaries which have been added.
+	 * @return
+	 */
+	public static int[] getDictionaryIDs() {
+		List<Integer> ids = new ArrayList<Integer>(DICTIONARIES.keySet());
+		int[] result = new int[ids.size()];
+		for (int i = 0; i < result.length; i++) result[i] = ids.get(i);
+		return result;
+	}
+	
+	
+	/**
+	 * Builds a preset dictionary from a sample of captured packets.
+	 * <p>
+	 * Whole bodies are a poor dictionary, since every packet has its own timestamp and often IDs
+	 * which are never seen again. Instead, the number of packets containing each run of 
+	 * {@code GRAM_LENGTH} bytes is counted, and runs found in only one packet are ignored.
+	 * The samples are then split into as many groups as there are segments in the dictionary, 
+	 * and from each group the segment of {@code SEGMENT_LENGTH} bytes whose runs are most common 
+	 * is taken. Runs already taken no longer count, so later segments cover different strings.
+	 * The segments are placed with the most common last, where the compressor can reach them most cheaply.
+	 * @param samples
+	 * @param codec the codec the dictionary will be used with
+	 * @param size the largest size of the dictionary, up to 32KB
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] trainDictionary(List<MessagePacket> samples, MessageCodec codec, int size) throws IOException {
+		size = Math.min(size, MAX_DICTIONARY);
+		
+		// Count the number of packets each run appears in
+		List<byte[]> bodies = new ArrayList<byte[]>(samples.size());
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		for (MessagePacket p : samples) {
+			byte[] body = codec.encode(p);
+			bodies.add(body);
+			
+			Set<Long> seen = new HashSet<Long>();
+			for (int i = 0; i + GRAM_LENGTH <= body.length; i++) {
+				Long gram = gram(body, i);
+				if (seen.add(gram)) {
+					Integer count = counts.get(gram);
+					counts.put(gram, count != null ? count + 1 : 1);
+				}
+			}
+		}
+		
+		// Take the best segment from each group of samples
+		int groups = Math.max(1, Math.min(bodies.size(), (size + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH));
+		List<Segment> segments = new ArrayList<Segment>();
+		for (int g = 0; g < groups; g++) {
+			Segment best = null;
+			for (byte[] body : bodies.subList(g * bodies.size() / groups, (g + 1) * bodies.size() / groups)) {
+				Segment segment = bestSegment(body, counts);
+				if (segment != null && (best == null || segment.score > best.score)) best = segment;
+			}
+			if (best == null) continue;
+			
+			segments.add(best);
+			for (int i = best.offset; i + GRAM_LENGTH <= best.offset + best.length; i++) {
+				counts.remove(gram(best.body, i));
+			}
+		}
+		
+		Collections.sort(segments, new Comparator<Segment>() {
+			@Override
+			public int compare(Segment a, Segment b) {
+				return Long.compare(b.score, a.score);
+			}
+		});
+		
+		// Fill from the end with the most common segments
+		byte[] dictionary = new byte[size];
+		int start = size;
+		for (Segment segment : segments) {
+			int length = Math.min(segment.length, start);
+			if (length == 0) break;
+			start -= length;
+			System.arraycopy(segment.body, segment.offset + segment.length - length, dictionary, start, length);
+		}
+		
+		return Arrays.copyOfRange(dictionary, start, size);
+	}
+	
+	
+	/**
+	 * Finds the segment of a body whose runs appear in the most packets.
+	 * @param body
+	 * @param counts the number of packets each run appears in
+	 * @return the segment, or null if no run in the body appears in more than one packet
+	 */
+	private static Segment bestSegment(byte[] body, Map<Long, Integer> counts) {
+		int grams = body.length - GRAM_LENGTH + 1;
+		if (grams <= 0) return null;
+		
+		int[] scores = new int[grams];
+		for (int i = 0; i < grams; i++) {
+			Integer count = counts.get(gram(body, i));
+			scores[i] = count != null && count > 1 ? count : 0;
+		}
+		
+		// Slide a window of the runs which fit in a segment along the body
+		int window = Math.min(grams, SEGMENT_LENGTH - GRAM_LENGTH + 1);
+		long score = 0, bestScore = 0;
+		int bestStart = 0;
+		for (int i = 0; i < grams; i++) {
+			score += scores[i];
+			if (i >= window) score -= scores[i - window];
+			if (i >= window - 1 && score > bestScore) {
+				bestScore = score;
+				bestStart = i - window + 1;
+			}
+		}
+		return bestScore > 0 ? new Segment(body, bestStart, window + GRAM_LENGTH - 1, bestScore) : null;
+	}
+	
+	
+	/**
+	 * Reads the run of bytes starting at an index of a body.
+	 * @param body
+	 * @param i
+	 * @return
+	 */
+	private static long gram(byte[] body, int i) {
+		long gram = 0;
+		for (int j = 0; j < GRAM_LENGTH; j++) gram = gram << 8 | (body[i + j] & 0xFF);
+		return gram;
+	}
+	
+	
+	/**
+	 * A part of a sample body chosen for the dictionary.
+	 * @author bwyap
+	 *
+	 */
+	private static class Segment {
+		private final byte[] body;
+		private final int offset;
+		private final int length;
+		private final long score;
+		
+		
+		private Segment(byte[] body, int offset, int length, long score) {
+			this.body = body;
+			this.offset = offset;
+			this.length = length;
+			this.score = score;
+		}
+	}
+	
+	
+	/**
+	 * Gets the number of packets encoded.
+	 * @return
+	 */
+	public long getPacketCount() {
+		return packets.get();
+	}
+	
+	
+	/**
+	 * Gets the number of packets which were sent compressed.
+	 * @return
+	 */
+	public long getCompressedCount() {
+		return compressed.get();
+	}
+	
+	
+	/**
+	 * Gets the ratio of the bytes sent to the bytes which would have been sent without compression.
+	 * @return
+	 */
+	public double getCompressionRatio() {
+		long in = bytesIn.get();
+		return in > 0 ? (double) bytesOut.get() / in : 1;
+	}
+	
+	
+	/**
+	 * Gets the total time in nanoseconds spent compressing packets.
+	 * Compression does not block, so this is close to the CPU time used.
+	 * @return
+	 */
+	public long getCompressNanos() {
+		return compressNanos.get();
+	}
+	
+	
+	/**
+	 * Gets the total time in nanoseconds this instance has spent decompressing packets.
+	 * @return
+	 */
+	public long getDecompressNanos() {
+		return decompressNanos.get();
+	}
+	
+}
@@ -0,0 +1,253 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.bwyap.network.codec.BinaryMessageCodec.Reader;
+import com.bwyap.network.codec.BinaryMessageCodec.Writer;
+import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageType;
+
+/**
+ * A binary codec which remembers the UUIDs and short strings sent on a connection,
+ * so that values which have been sent before are replaced by a small index into a table.
+ * This works like header compression in HTTP/2: once a connection is authenticated, 
+ * the sender and receiver IDs and the leading command words are sent in a byte or two.
+ * <p>
+ * The body of a frame is laid out as:
+ * <ol>
+ * 	<li> the difference from the previous timestamp (zigzag varint)
+ * 	<li> flags (byte) marking which of the sender ID, receiver ID and data are present
+ * 	<li> sender and receiver IDs (if present), each as a varint which is 0 for a new ID
+ * 	followed by its 16 bytes, or one more than the index of a known ID
+ * 	<li> ordinal of the message type (byte)
+ * 	<li> number of data strings (varint, if present)
+ * 	<li> each data string as a varint which is {@code NULL}, {@code LITERAL} or {@code INDEXED} 
+ * 	followed by the length and UTF-8 bytes of the string, or {@code REFERENCE} plus the index of a known string
+ * 	<li> type ID (varint) and body as a varint length followed by its bytes (if typed)
+ * </ol>
+ * New IDs and strings of up to {@code MAX_INDEXED_LENGTH} bytes are added to the tables of both ends 
+ * as they are sent. When a table is full, the oldest entry is replaced.
+ * <p>
+ * This codec is stateful: each connection must encode with its own instance.
+ * @author bwyap
+ *
+ */
+public class DictionaryMessageCodec implements StatefulMessageCodec {
+
+	public static final byte ID = 3;
+	
+	public static final int UUID_TABLE_SIZE = 64;
+	public static final int STRING_TABLE_SIZE = 256;
+	public static final int MAX_INDEXED_LENGTH = 64;
+	
+	private static final int HAS_SENDER = 1;
+	private static final int HAS_RECEIVER = 2;
+	private static final int HAS_DATA = 4;
+	private static final int HAS_BODY = 8;
+	
+	private static final int NULL = 0;
+	private static final int LITERAL = 1;
+	private static final int INDEXED = 2;
+	private static final int REFERENCE = 3;
+	
+	private static final MessageType[] TYPES = MessageType.values();
+	
+	private final Table<UUID> uuids = new Table<UUID>(UUID_TABLE_SIZE);
+	private final Table<String> strings = new Table<String>(STRING_TABLE_SIZE);
+	private long timestamp = 0;
+	
+	
+	@Override
+	public byte getID() {
+		return ID;
+	}
+	
+	
+	@Override
+	public StatefulMessageCodec newInstance() {
+		return new DictionaryMessageCodec();
+	}
+	
+	
+	@Override
+	public synchronized byte[] encode(MessagePacket p) throws IOException {
+		Writer w = new Writer(64);
+		
+		long delta = p.timestamp - timestamp;
+		timestamp = p.timestamp;
+		writeVarlong(w, (delta << 1) ^ (delta >> 63));
+		
+		w.writeByte((p.senderID != null ? HAS_SENDER : 0) | (p.receiverID != null ? HAS_RECEIVER : 0) | 
+				(p.data != null ? HAS_DATA : 0) | (p.body != null ? HAS_BODY : 0));
+		if (p.senderID != null) writeUUID(w, p.senderID);
+		if (p.receiverID != null) writeUUID(w, p.receiverID);
+		w.writeByte(p.type != null ? p.type.ordinal() : 0xFF);
+		
+		if (p.data != null) {
+			w.writeVarint(p.data.length);
+			for (String s : p.data) writeString(w, s);
+		}
+		
+		if (p.body != null) w.writeBody(p.typeID, p.body);
+		
+		return w.toByteArray();
+	}
+	
+	
+	private void writeUUID(Writer w, UUID id) {
+		int index = uuids.find(id);
+		if (index >= 0) w.writeVarint(index + 1);
+		else {
+			w.writeVarint(0);
+			w.writeUUID(id);
+			uuids.add(id);
+		}
+	}
+	
+	
+	private void writeString(Writer w, String s) {
+		if (s == null) {
+			w.writeVarint(NULL);
+			return;
+		}
+		
+		int index = strings.find(s);
+		if (index >= 0) {
+			w.writeVarint(REFERENCE + index);
+			return;
+		}
+		
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= MAX_INDEXED_LENGTH) {
+			w.writeVarint(INDEXED);
+			strings.add(s);
+		}
+		else w.writeVarint(LITERAL);
+		w.writeVarint(bytes.length);
+		w.write(bytes);
+	}
+	
+	
+	private static void writeVarlong(Writer w, long v) {
+		while ((v & ~0x7FL) != 0) {
+			w.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		w.writeByte((int) v);
+	}
+	
+	
+	@Override
+	public synchronized MessagePacket decode(byte[] data, int offset, int length) throws IOException {
+		Reader r = new Reader(data, offset, length);
+		
+		long zigzag = readVarlong(r);
+		timestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+		
+		int flags = r.readByte();
+		UUID senderID = (flags & HAS_SENDER) != 0 ? readUUID(r) : null;
+		UUID receiverID = (flags & HAS_RECEIVER) != 0 ? readUUID(r) : null;
+		
+		int ordinal = r.readByte();
+		if (ordinal != 0xFF && ordinal >= TYPES.length) {
+			throw new StreamCorruptedException("Unknown message type: " + ordinal);
+		}
+		MessageType type = ordinal != 0xFF ? TYPES[ordinal] : null;
+		
+		String[] values = null;
+		if ((flags & HAS_DATA) != 0) {
+			int count = r.readVarint();
+			if (count > length) throw new StreamCorruptedException("Invalid data length: " + count);
+			
+			values = new String[count];
+			for (int i = 0; i < count; i++) values[i] = readString(r);
+		}
+		
+		MessagePacket p = new MessagePacket(timestamp, senderID, receiverID, type, values);
+		if ((flags & HAS_BODY) != 0) r.readBody(p);
+		return p;
+	}
+	
+	
+	private UUID readUUID(Reader r) throws IOException {
+		int tag = r.readVarint();
+		if (tag > 0) return uuids.get(tag - 1);
+		
+		UUID id = r.readUUID();
+		uuids.add(id);
+		return id;
+	}
+	
+	
+	private String readString(Reader r) throws IOException {
+		int tag = r.readVarint();
+		if (tag == NULL) return null;
+		if (tag >= REFERENCE) return strings.get(tag - REFERENCE);
+		
+		String s = r.readString(r.readVarint());
+		if (tag == INDEXED) strings.add(s);
+		return s;
+	}
+	
+	
+	private static long readVarlong(Reader r) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = r.readByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return v;
+		}
+		throw new StreamCorruptedException("Malformed varint.");
+	}
+	
+	
+	/**
+	 * A fixed size table of values which replaces its oldest entry when it is full.
+	 * Both ends of a connection add the same values in the same order, 
+	 * so their tables always hold the same entries.
+	 */
+	private static class Table<T> {
+		
+		private final Object[] entries;
+		private final Map<T, Integer> indices = new HashMap<T, Integer>();
+		private int next = 0;
+		
+		
+		Table(int size) {
+			entries = new Object[size];
+		}
+		
+		
+		/**
+		 * @return the index of the value, or -1 if it is not in the table
+		 */
+		int find(T value) {
+			Integer index = indices.get(value);
+			return index != null ? index : -1;
+		}
+		
+		
+		@SuppressWarnings("unchecked")
+		T get(int index) throws StreamCorruptedException {
+			if (index < 0 || index >= entries.length || entries[index] == null) {
+				throw new StreamCorruptedException("Unknown table index: " + index);
+			}
+			return (T) entries[index];
+		}
+		
+		
+		@SuppressWarnings("unchecked")
+		void add(T value) {
+			if (entries[next] != null) indices.remove((T) entries[next]);
+			entries[next] = value;
+			indices.put(value, next);
+			next = (next + 1) % entries.length;
+		}
+	}
+	
+}
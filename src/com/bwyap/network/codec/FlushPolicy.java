@@ -0,0 +1,69 @@
+package com.bwyap.network.codec;
+
+import java.util.concurrent.TimeUnit;
+
+import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageQueue;
+
+/**
+ * Decides how many queued packets are written to a connection before its output is flushed.
+ * <p>
+ * The outputs are buffered, so packets only reach the socket when the output is flushed. 
+ * The thread writing a connection drains its queue into the output and flushes once, 
+ * so that a burst of packets is sent in a few large writes rather than one write per packet.
+ * A batch ends when the queue is empty and the linger time has passed, or when it reaches 
+ * its maximum size.
+ * @author bwyap
+ *
+ */
+public class FlushPolicy {
+
+	public static final FlushPolicy IMMEDIATE = new FlushPolicy(1, 0);
+	public static final FlushPolicy DEFAULT = new FlushPolicy(64, 0);
+	
+	private final int maxBatch;
+	private final long lingerMillis;
+	
+	
+	/**
+	 * Create a flush policy.
+	 * @param maxBatch the most packets to write before flushing
+	 * @param lingerMillis how long to wait for more packets once the queue is empty, or 0 to flush straight away
+	 */
+	public FlushPolicy(int maxBatch, long lingerMillis) {
+		if (maxBatch < 1) throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+		this.maxBatch = maxBatch;
+		this.lingerMillis = lingerMillis;
+	}
+	
+	
+	/**
+	 * Gets the next packet to add to a batch.
+	 * @param queue the queue the batch is taken from
+	 * @param count the number of packets already in the batch
+	 * @param started the time in milliseconds when the batch was started
+	 * @return the packet, or null if the batch should be flushed
+	 * @throws InterruptedException
+	 */
+	public MessagePacket next(MessageQueue queue, int count, long started) throws InterruptedException {
+		if (count >= maxBatch) return null;
+		
+		MessagePacket p = queue.poll();
+		if (p == null && lingerMillis > 0) {
+			long remaining = started + lingerMillis - System.currentTimeMillis();
+			if (remaining > 0) p = queue.poll(remaining, TimeUnit.MILLISECONDS);
+		}
+		return p;
+	}
+	
+	
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+	
+	
+	public long getLingerMillis() {
+		return lingerMillis;
+	}
+	
+}
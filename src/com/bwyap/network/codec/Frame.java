@@ -0,0 +1,150 @@
+package com.bwyap.network.codec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Constants and helper methods for the framed wire format.
+ * <p>
+ * A framed connection starts with each end sending the 4 byte {@code MAGIC} preamble.
+ * Every packet after that is sent as a frame made up of:
+ * <ol>
+ * 	<li> the length of the rest of the frame (int)
+ * 	<li> the ID of the codec used to encode the body (byte)
+ * 	<li> the body
+ * </ol>
+ * The preamble cannot be mistaken for the header of a Java serialization stream ({@code 0xACED0005}),
+ * which allows a server to support both framed and object stream clients on the same port.
+ * @author bwyap
+ *
+ */
+public final class Frame {
+
+	public static final int MAGIC = 0x42575946;
+	public static final int STREAM_MAGIC = 0xACED0005;
+	
+	public static final int PREAMBLE_LENGTH = 4;
+	public static final int HEADER_LENGTH = 5;
+	public static final int MAX_LENGTH = 16 * 1024 * 1024;
+	
+	
+	private Frame() { }
+	
+	
+	/**
+	 * Encodes a packet into a complete frame, including the frame header.
+	 * The frame of a {@code SharedPacket} is only encoded once for each stateless codec ID,
+	 * and an unchanged {@code LazyPacket} sent with the codec it was decoded with reuses its original bytes.
+	 * @param codec
+	 * @param p
+	 * @return a buffer positioned at the start of the frame
+	 * @throws IOException
+	 */
+	public static ByteBuffer encode(MessageCodec codec, MessagePacket p) throws IOException {
+		if (p instanceof SharedPacket && !(codec instanceof StatefulMessageCodec)) return ((SharedPacket) p).getFrame(codec);
+		if (p instanceof LazyPacket) {
+			ByteBuffer frame = ((LazyPacket) p).getFrame(codec);
+			if (frame != null) return frame;
+		}
+		return encodeFrame(codec, p);
+	}
+	
+	
+	/**
+	 * Encodes a new frame for a packet.
+	 * @param codec
+	 * @param p
+	 * @return
+	 * @throws IOException
+	 */
+	static ByteBuffer encodeFrame(MessageCodec codec, MessagePacket p) throws IOException {
+		byte[] body = codec.encode(p);
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+		frame.putInt(body.length + 1);
+		frame.put(codec.getID());
+		frame.put(body);
+		frame.flip();
+		return frame;
+	}
+	
+	
+	/**
+	 * Decodes the body of a frame using the codec with the ID from the frame header.
+	 * Frames from a stateful codec must be decoded with the {@code FrameDecoder} of their connection.
+	 * @param id
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException if the codec is unknown or the body is invalid
+	 */
+	public static MessagePacket decode(byte id, byte[] data, int offset, int length) throws IOException {
+		MessageCodec codec = Codecs.get(id);
+		if (codec == null) {
+			throw new StreamCorruptedException("Unsupported codec: " + id);
+		}
+		if (codec instanceof StatefulMessageCodec) {
+			throw new StreamCorruptedException("Stateful codec outside of a connection: " + id);
+		}
+		return codec.decode(data, offset, length);
+	}
+	
+	
+	/**
+	 * Checks that the length read from a frame header is valid.
+	 * @param length
+	 * @throws StreamCorruptedException
+	 */
+	public static void checkLength(int length) throws StreamCorruptedException {
+		if (length < 1 || length > MAX_LENGTH) {
+			throw new StreamCorruptedException("Invalid frame length: " + length);
+		}
+	}
+	
+	
+	/**
+	 * Writes the preamble for a framed connection.
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writePreamble(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.flush();
+	}
+	
+	
+	/**
+	 * Peeks at the first bytes sent on a connection to check whether it is framed.
+	 * The stream is reset afterwards so the bytes can be read again.
+	 * @param in
+	 * @return true if the connection starts with the framed preamble
+	 * @throws IOException
+	 */
+	public static boolean peekPreamble(BufferedInputStream in) throws IOException {
+		byte[] preamble = new byte[PREAMBLE_LENGTH];
+		in.mark(PREAMBLE_LENGTH);
+		new DataInputStream(in).readFully(preamble);
+		in.reset();
+		return ByteBuffer.wrap(preamble).getInt() == MAGIC;
+	}
+	
+	
+	/**
+	 * Reads and checks the preamble of a framed connection.
+	 * @param in
+	 * @throws IOException if the preamble is invalid
+	 */
+	public static void readPreamble(DataInputStream in) throws IOException {
+		int magic = in.readInt();
+		if (magic != MAGIC) {
+			throw new StreamCorruptedException(String.format("Invalid frame preamble: %08X", magic));
+		}
+	}
+	
+}
@@ -0,0 +1,78 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Decodes the frames received on one connection.
+ * Frames from stateless codecs are decoded by the codecs in {@code Codecs}, 
+ * while each stateful codec gets its own instance for the connection 
+ * the first time one of its frames arrives.
+ * <p>
+ * A lazy decoder only decodes the header of binary frames and leaves their data 
+ * to be decoded when it is first read (see {@code LazyPacket}). 
+ * The arrays given to a lazy decoder are kept by the packets and must not be reused.
+ * @author bwyap
+ *
+ */
+public class FrameDecoder {
+
+	private final boolean lazy;
+	private MessageCodec[] stateful;
+	
+	
+	/**
+	 * Create a decoder which decodes each packet completely.
+	 */
+	public FrameDecoder() {
+		this(false);
+	}
+	
+	
+	/**
+	 * Create a decoder.
+	 * @param lazy true to only decode the header of binary frames until their data is read
+	 */
+	public FrameDecoder(boolean lazy) {
+		this.lazy = lazy;
+	}
+	
+	
+	/**
+	 * Checks if the decoder keeps the arrays it is given.
+	 * @return
+	 */
+	public boolean isLazy() {
+		return lazy;
+	}
+	
+	
+	/**
+	 * Decodes the body of a frame using the codec with the ID from the frame header.
+	 * @param id
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException if the codec is unknown or the body is invalid
+	 */
+	public MessagePacket decode(byte id, byte[] data, int offset, int length) throws IOException {
+		MessageCodec codec = Codecs.get(id);
+		if (codec == null) {
+			throw new StreamCorruptedException("Unsupported codec: " + id);
+		}
+		
+		if (codec instanceof StatefulMessageCodec) {
+			if (stateful == null) stateful = new MessageCodec[256];
+			if (stateful[id & 0xFF] == null) stateful[id & 0xFF] = ((StatefulMessageCodec) codec).newInstance();
+			codec = stateful[id & 0xFF];
+		}
+		else if (lazy && codec instanceof BinaryMessageCodec) {
+			return ((BinaryMessageCodec) codec).decodeHeader(data, offset, length);
+		}
+		return codec.decode(data, offset, length);
+	}
+	
+}
@@ -0,0 +1,51 @@
+package com.bwyap.network.codec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Reads packets from length-prefixed frames.
+ * Each frame is decoded with the codec named in its header.
+ * The preamble is read and checked when the input is created.
+ * @author bwyap
+ *
+ */
+public class FramedPacketInput implements PacketInput {
+
+	protected DataInputStream in;
+	protected FrameDecoder decoder;
+	
+	
+	public FramedPacketInput(InputStream in) throws IOException {
+		this(in, new FrameDecoder());
+	}
+	
+	
+	public FramedPacketInput(InputStream in, FrameDecoder decoder) throws IOException {
+		if (!(in instanceof BufferedInputStream)) in = new BufferedInputStream(in, BUFFER_SIZE);
+		this.in = new DataInputStream(in);
+		this.decoder = decoder;
+		Frame.readPreamble(this.in);
+	}
+	
+	
+	@Override
+	public MessagePacket readPacket() throws IOException {
+		int length = in.readInt();
+		Frame.checkLength(length);
+		
+		byte id = in.readByte();
+		
+		// The frame header is kept in front of the body so that a lazy packet can forward the whole frame
+		byte[] frame = new byte[Frame.HEADER_LENGTH + length - 1];
+		ByteBuffer.wrap(frame).putInt(length).put(id);
+		in.readFully(frame, Frame.HEADER_LENGTH, length - 1);
+		return decoder.decode(id, frame, Frame.HEADER_LENGTH, length - 1);
+	}
+	
+}
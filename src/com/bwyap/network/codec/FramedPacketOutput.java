@@ -0,0 +1,56 @@
+package com.bwyap.network.codec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Writes packets as length-prefixed frames.
+ * The preamble is written when the output is created.
+ * @author bwyap
+ *
+ */
+public class FramedPacketOutput implements PacketOutput {
+
+	protected DataOutputStream out;
+	protected volatile MessageCodec codec;
+	
+	
+	public FramedPacketOutput(OutputStream out, MessageCodec codec) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		this.codec = codec;
+		Frame.writePreamble(this.out);
+	}
+	
+	
+	@Override
+	public void writePacket(MessagePacket p) throws IOException {
+		ByteBuffer frame = Frame.encode(codec, p);
+		out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+	}
+	
+	
+	/**
+	 * Changes the codec used to encode the packets written after this call.
+	 * The receiving end must be able to decode frames from the new codec.
+	 * @param codec
+	 */
+	public void setCodec(MessageCodec codec) {
+		this.codec = codec;
+	}
+	
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	
+	@Override
+	public void idle() { }
+	
+}
@@ -0,0 +1,148 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageType;
+
+/**
+ * A MessagePacket whose header has been decoded but whose data is only decoded 
+ * the first time {@code getData} is called.
+ * The packet keeps the body it was decoded from, so a packet which is forwarded 
+ * without being changed is sent with the original bytes instead of being encoded again.
+ * Readers keep the frame header in front of the body so that the whole frame can be forwarded without a copy.
+ * <p>
+ * The {@code data} field is null until {@code getData} has been called.
+ * @author bwyap
+ *
+ */
+public class LazyPacket extends MessagePacket {
+
+	private static final long serialVersionUID = 2306484468377768561L;
+	
+	private final transient BinaryMessageCodec codec;
+	private final transient byte[] bytes;
+	private final transient int offset;
+	private final transient int length;
+	private final transient int dataOffset;
+	
+	private transient boolean decoded = false;
+	private transient String[] decodedData;
+	
+	// The header as it was decoded, to detect changes before forwarding the original bytes
+	private final transient long originalTimestamp;
+	private final transient UUID originalSenderID;
+	private final transient UUID originalReceiverID;
+	private final transient MessageType originalType;
+	private final transient int originalTypeID;
+	private final transient byte[] originalBody;
+	
+	
+	/**
+	 * Create a packet with its header decoded.
+	 * @param timestamp
+	 * @param senderID
+	 * @param receiverID
+	 * @param type
+	 * @param typeID
+	 * @param body
+	 * @param codec the codec which encoded the packet
+	 * @param bytes the array holding the encoded packet, which must not be modified afterwards
+	 * @param offset the start of the encoded packet
+	 * @param length the length of the encoded packet
+	 * @param dataOffset the start of the encoded data, or -1 if the packet has no data
+	 */
+	LazyPacket(long timestamp, UUID senderID, UUID receiverID, MessageType type, int typeID, byte[] body, 
+			BinaryMessageCodec codec, byte[] bytes, int offset, int length, int dataOffset) {
+		super(timestamp, senderID, receiverID, type, null);
+		this.typeID = typeID;
+		this.body = body;
+		
+		this.codec = codec;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.dataOffset = dataOffset;
+		this.decoded = dataOffset < 0;
+		
+		this.originalTimestamp = timestamp;
+		this.originalSenderID = senderID;
+		this.originalReceiverID = receiverID;
+		this.originalType = type;
+		this.originalTypeID = typeID;
+		this.originalBody = body;
+	}
+	
+	
+	@Override
+	public synchronized String[] getData() {
+		if (!decoded) {
+			try {
+				decodedData = codec.decodeData(bytes, dataOffset, offset + length - dataOffset);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			data = decodedData;
+			decoded = true;
+		}
+		return data;
+	}
+	
+	
+	@Override
+	public synchronized boolean hasData() {
+		return decoded ? data != null : true;
+	}
+	
+	
+	/**
+	 * Checks if the packet is the same as when it was decoded.
+	 * @return
+	 */
+	public synchronized boolean isUnchanged() {
+		return timestamp == originalTimestamp && senderID == originalSenderID && receiverID == originalReceiverID && 
+				type == originalType && typeID == originalTypeID && body == originalBody && data == decodedData;
+	}
+	
+	
+	/**
+	 * Gets a frame holding the original bytes of the packet,
+	 * if the packet has not changed and is being sent with the codec it was decoded with.
+	 * If the packet was decoded from a whole frame, the frame is returned without being copied.
+	 * @param codec
+	 * @return a buffer positioned at the start of the frame, or null if the packet must be encoded again
+	 */
+	ByteBuffer getFrame(MessageCodec codec) {
+		if (codec.getID() != this.codec.getID() || !isUnchanged()) return null;
+		
+		if (offset >= Frame.HEADER_LENGTH) {
+			ByteBuffer frame = ByteBuffer.wrap(bytes, offset - Frame.HEADER_LENGTH, Frame.HEADER_LENGTH + length);
+			if (frame.getInt(frame.position()) == length + 1 && frame.get(frame.position() + 4) == codec.getID()) return frame;
+		}
+		
+		ByteBuffer frame = ByteBuffer.allocate(Frame.HEADER_LENGTH + length);
+		frame.putInt(length + 1);
+		frame.put(codec.getID());
+		frame.put(bytes, offset, length);
+		frame.flip();
+		return frame;
+	}
+	
+	
+	/**
+	 * Lazy packets written to an object stream are sent as a plain MessagePacket.
+	 * @return
+	 * @throws ObjectStreamException
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		MessagePacket m = new MessagePacket(timestamp, senderID, receiverID, type, getData());
+		m.typeID = typeID;
+		m.body = body;
+		return m;
+	}
+	
+}
@@ -0,0 +1,43 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Converts a MessagePacket to and from the bytes carried in the body of a frame.
+ * Every codec has a unique ID which is written in the header of each frame
+ * so that the receiving end knows how to decode the body.
+ * @author bwyap
+ *
+ */
+public interface MessageCodec {
+
+	
+	/**
+	 * Gets the ID of the codec written in the header of each frame it encodes.
+	 * @return
+	 */
+	public byte getID();
+	
+	
+	/**
+	 * Encodes a MessagePacket into the body of a frame.
+	 * @param p
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] encode(MessagePacket p) throws IOException;
+	
+	
+	/**
+	 * Decodes a MessagePacket from the body of a frame.
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException if the body is not a valid packet for this codec
+	 */
+	public MessagePacket decode(byte[] data, int offset, int length) throws IOException;
+	
+}
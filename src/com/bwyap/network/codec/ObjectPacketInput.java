@@ -0,0 +1,32 @@
+package com.bwyap.network.codec;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Reads packets from a single Java serialization stream.
+ * This is the original wire format of the client and server.
+ * @author bwyap
+ *
+ */
+public class ObjectPacketInput implements PacketInput {
+
+	protected ObjectInputStream in;
+	
+	
+	public ObjectPacketInput(InputStream in) throws IOException {
+		if (!(in instanceof BufferedInputStream)) in = new BufferedInputStream(in, BUFFER_SIZE);
+		this.in = new ObjectInputStream(in);
+	}
+	
+	
+	@Override
+	public MessagePacket readPacket() throws IOException, ClassNotFoundException {
+		return (MessagePacket) in.readObject();
+	}
+	
+}
@@ -0,0 +1,109 @@
+package com.bwyap.network.codec;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Writes packets to a single Java serialization stream.
+ * This is the original wire format of the client and server.
+ * The stream is reset according to its {@code ResetPolicy} so that 
+ * the handle tables on either end do not grow for the life of the connection.
+ * @author bwyap
+ *
+ */
+public class ObjectPacketOutput implements PacketOutput {
+
+	protected ObjectOutputStream out;
+	protected CountingOutputStream counter;
+	protected ResetPolicy policy;
+	
+	protected int messages = 0;
+	protected long resetBytes = 0;
+	protected long lastWrite = System.currentTimeMillis();
+	
+	
+	public ObjectPacketOutput(OutputStream out) throws IOException {
+		this(out, ResetPolicy.DEFAULT);
+	}
+	
+	
+	public ObjectPacketOutput(OutputStream out, ResetPolicy policy) throws IOException {
+		this.counter = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		this.out = new ObjectOutputStream(counter);
+		this.policy = policy;
+		
+		// The reader cannot open its stream until it has the header
+		this.out.flush();
+	}
+	
+	
+	@Override
+	public void writePacket(MessagePacket p) throws IOException {
+		out.writeObject(p);
+		messages++;
+		lastWrite = System.currentTimeMillis();
+		
+		if (policy.shouldReset(messages, counter.count - resetBytes)) reset();
+	}
+	
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	
+	@Override
+	public void idle() throws IOException {
+		if (policy.shouldResetIdle(messages, System.currentTimeMillis() - lastWrite)) {
+			reset();
+			// Nothing else may be written for a while, so send the reset marker now
+			out.flush();
+		}
+	}
+	
+	
+	/**
+	 * Resets the stream, discarding every object written so far.
+	 * @throws IOException
+	 */
+	protected void reset() throws IOException {
+		out.reset();
+		messages = 0;
+		resetBytes = counter.count;
+	}
+	
+	
+	/**
+	 * Counts the bytes written to the socket.
+	 */
+	protected static class CountingOutputStream extends FilterOutputStream {
+		
+		protected long count = 0;
+		
+		
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+	
+}
@@ -0,0 +1,25 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * The receiving end of a blocking connection.
+ * @author bwyap
+ *
+ */
+public interface PacketInput {
+
+	public static final int BUFFER_SIZE = 8192;
+	
+	
+	/**
+	 * Blocks until the next packet has been read from the connection.
+	 * @return
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public MessagePacket readPacket() throws IOException, ClassNotFoundException;
+	
+}
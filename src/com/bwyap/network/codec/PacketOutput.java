@@ -0,0 +1,41 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * The sending end of a blocking connection.
+ * Outputs are buffered: written packets are only guaranteed to 
+ * reach the connection once the output has been flushed.
+ * @author bwyap
+ *
+ */
+public interface PacketOutput {
+
+	public static final int BUFFER_SIZE = 8192;
+	
+	
+	/**
+	 * Writes a packet to the output buffer.
+	 * @param p
+	 * @throws IOException
+	 */
+	public void writePacket(MessagePacket p) throws IOException;
+	
+	
+	/**
+	 * Flushes the buffered packets to the connection.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+	
+	
+	/**
+	 * Called when there has been nothing to write for a while,
+	 * so that the output can release anything it is holding on to.
+	 * @throws IOException
+	 */
+	public void idle() throws IOException;
+	
+}
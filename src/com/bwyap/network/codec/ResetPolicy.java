@@ -0,0 +1,75 @@
+package com.bwyap.network.codec;
+
+/**
+ * Decides when an {@code ObjectPacketOutput} should reset its stream.
+ * <p>
+ * An {@code ObjectOutputStream} keeps a reference to every object written to it so that 
+ * repeated objects can be sent as back-references. On a long-lived connection this pins every 
+ * MessagePacket ever sent on both ends of the connection. Resetting the stream clears the handle table 
+ * of the writer, and of the reader when it reads the reset marker, at the cost of resending 
+ * class descriptors with the next packet.
+ * <p>
+ * A limit of 0 disables that condition.
+ * @author bwyap
+ *
+ */
+public class ResetPolicy {
+
+	public static final ResetPolicy NEVER = new ResetPolicy(0, 0, 0);
+	public static final ResetPolicy DEFAULT = new ResetPolicy(1000, 1024 * 1024, 5000);
+	
+	private final int maxMessages;
+	private final long maxBytes;
+	private final long idleMillis;
+	
+	
+	/**
+	 * Create a reset policy.
+	 * @param maxMessages reset after this many messages have been written
+	 * @param maxBytes reset after this many bytes have been written
+	 * @param idleMillis reset when nothing has been written for this many milliseconds
+	 */
+	public ResetPolicy(int maxMessages, long maxBytes, long idleMillis) {
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.idleMillis = idleMillis;
+	}
+	
+	
+	/**
+	 * Checks if the stream should be reset after writing a message.
+	 * @param messages the number of messages written since the last reset
+	 * @param bytes the number of bytes written since the last reset
+	 * @return
+	 */
+	public boolean shouldReset(int messages, long bytes) {
+		return (maxMessages > 0 && messages >= maxMessages) || (maxBytes > 0 && bytes >= maxBytes);
+	}
+	
+	
+	/**
+	 * Checks if the stream should be reset while there is nothing to write.
+	 * @param messages the number of messages written since the last reset
+	 * @param idle the number of milliseconds since the last message was written
+	 * @return
+	 */
+	public boolean shouldResetIdle(int messages, long idle) {
+		return messages > 0 && idleMillis > 0 && idle >= idleMillis;
+	}
+	
+	
+	public int getMaxMessages() {
+		return maxMessages;
+	}
+	
+	
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	
+	public long getIdleMillis() {
+		return idleMillis;
+	}
+	
+}
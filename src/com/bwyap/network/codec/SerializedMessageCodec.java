@@ -0,0 +1,48 @@
+package com.bwyap.network.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * A codec which uses Java serialization to encode each MessagePacket.
+ * Every frame is a complete serialization stream so no state is shared between frames.
+ * @author bwyap
+ *
+ */
+public class SerializedMessageCodec implements MessageCodec {
+
+	public static final byte ID = 0;
+	
+	
+	@Override
+	public byte getID() {
+		return ID;
+	}
+	
+	
+	@Override
+	public byte[] encode(MessagePacket p) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(p);
+		}
+		return bytes.toByteArray();
+	}
+
+	
+	@Override
+	public MessagePacket decode(byte[] data, int offset, int length) throws IOException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length))) {
+			return (MessagePacket) in.readObject();
+		}
+		catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Frame does not contain a MessagePacket.", e);
+		}
+	}
+	
+}
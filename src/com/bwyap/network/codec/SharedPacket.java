@@ -0,0 +1,81 @@
+package com.bwyap.network.codec;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * A MessagePacket which is sent unchanged to many connections.
+ * The frame for each codec is encoded the first time it is needed and the same bytes are 
+ * given to every connection using that codec. Frames are kept by codec ID rather than by
+ * instance, since each connection has its own instance of a codec and stateless codecs with 
+ * the same ID produce frames that decode the same way. Each connection writes from its own 
+ * {@code ByteBuffer} view of the bytes, so the frame is never copied.
+ * <p>
+ * The packet and its frames must not be modified once it has been sent.
+ * @author bwyap
+ *
+ */
+public class SharedPacket extends MessagePacket {
+
+	private static final long serialVersionUID = -3012885245313092467L;
+	
+	private transient byte[] codecs = new byte[2];
+	private transient byte[][] frames = new byte[2][];
+	private transient int count = 0;
+	
+	
+	public SharedPacket(MessagePacket m) {
+		super(m.timestamp, m.senderID, m.receiverID, m.type, m.getData());
+		this.typeID = m.typeID;
+		this.body = m.body;
+	}
+	
+	
+	/**
+	 * Gets a view of the frame encoded with the specified codec.
+	 * The frame is encoded if this is the first time a frame with the codec's ID has been requested.
+	 * @param codec a stateless codec
+	 * @return a buffer positioned at the start of the frame
+	 * @throws IOException
+	 */
+	public ByteBuffer getFrame(MessageCodec codec) throws IOException {
+		byte id = codec.getID();
+		byte[] frame = null;
+		
+		synchronized (this) {
+			for (int i = 0; i < count && frame == null; i++) {
+				if (codecs[i] == id) frame = frames[i];
+			}
+			
+			if (frame == null) {
+				frame = Frame.encodeFrame(codec, this).array();
+				if (count == codecs.length) {
+					codecs = Arrays.copyOf(codecs, count * 2);
+					frames = Arrays.copyOf(frames, count * 2);
+				}
+				codecs[count] = id;
+				frames[count++] = frame;
+			}
+		}
+		
+		return ByteBuffer.wrap(frame);
+	}
+	
+	
+	/**
+	 * Shared packets written to an object stream are sent as a plain MessagePacket.
+	 * @return
+	 * @throws ObjectStreamException
+	 */
+	protected Object writeReplace() throws ObjectStreamException {
+		MessagePacket m = new MessagePacket(timestamp, senderID, receiverID, type, data);
+		m.typeID = typeID;
+		m.body = body;
+		return m;
+	}
+	
+}
@@ -0,0 +1,23 @@
+package com.bwyap.network.codec;
+
+/**
+ * A codec which keeps state from the packets it has already encoded or decoded,
+ * such as a table of values which have been sent before.
+ * <p>
+ * An instance must only encode the frames sent in one direction of one connection,
+ * and the frames must be decoded in the same order by an instance with matching state. 
+ * The instance registered in {@code Codecs} is only used to create new instances 
+ * for each connection that receives frames from the codec.
+ * @author bwyap
+ *
+ */
+public interface StatefulMessageCodec extends MessageCodec {
+
+	
+	/**
+	 * Creates an instance of the codec with no state.
+	 * @return
+	 */
+	public StatefulMessageCodec newInstance();
+	
+}
@@ -3,6 +3,7 @@ package com.bwyap.network.driver;
 import java.awt.EventQueue;
 
 import com.bwyap.network.resource.Resource;
+import com.bwyap.network.driver.authenticator.CredentialServerAuthenticator;
 import com.bwyap.network.driver.authenticator.DriverClientAuthenticator;
 import com.bwyap.network.driver.authenticator.DriverServerAuthenticator;
 import com.bwyap.network.driver.client.DriverClient;
@@ -69,11 +70,14 @@ public class ClientServerDriver {
 	
 	
 	/**
-	 * Create a server on the specified port
+	 * Create a server on the specified port.
+	 * If a credential file has been provided, clients are checked against it instead of the default key.
 	 * @param port
 	 */
 	public void createServer(int port) {
-		server = new DriverServer("server", port, 2, new DriverServerAuthenticator());
+		Resource.loadCredentials();
+		server = new DriverServer("server", port, 2, Resource.Credentials != null ? 
+				new CredentialServerAuthenticator(Resource.Credentials) : new DriverServerAuthenticator());
 		new Thread(server, "server").start();
 	}
 	
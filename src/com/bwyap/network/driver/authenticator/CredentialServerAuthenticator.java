@@ -0,0 +1,43 @@
+package com.bwyap.network.driver.authenticator;
+
+import com.bwyap.network.authenticator.CachingCredentialStore;
+import com.bwyap.network.authenticator.CredentialStore;
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * A server authenticator which checks the name and password sent by a {@code DriverClientAuthenticator}
+ * against a store of credentials for each user, instead of a single shared key.
+ * Recently verified users are remembered so that a client which reconnects is not hashed again.
+ * @author bwyap
+ *
+ */
+public class CredentialServerAuthenticator extends DriverServerAuthenticator {
+
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+	
+	private final CredentialStore store;
+	
+	
+	public CredentialServerAuthenticator(CredentialStore store) {
+		this(store, DEFAULT_CACHE_SIZE);
+	}
+	
+	
+	/**
+	 * Create an authenticator.
+	 * @param store
+	 * @param cacheSize the number of recently verified users to remember, or 0 to always check the store
+	 */
+	public CredentialServerAuthenticator(CredentialStore store, int cacheSize) {
+		super();
+		this.store = cacheSize > 0 ? new CachingCredentialStore(store, cacheSize) : store;
+	}
+	
+	
+	@Override
+	public boolean authenticateResponse(MessagePacket m) {
+		if (m.data == null || m.data.length < 2) return false;
+		return store.verify(m.data[0], m.data[1]);
+	}
+
+}
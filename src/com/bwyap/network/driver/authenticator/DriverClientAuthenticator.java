@@ -8,16 +8,33 @@ import com.bwyap.network.message.MessageType;
 
 public class DriverClientAuthenticator extends ClientAuthenticator {
 
-	private final String key = "password";
+	private final String key;
 
 	
 	public DriverClientAuthenticator(UUID id) {
-		super(id);
+		this(id, "password");
 	}
 	
 
 	public DriverClientAuthenticator() {
-		super(null);
+		this(null, "password");
+	}
+	
+	
+	private DriverClientAuthenticator(UUID id, String key) {
+		super(id);
+		this.key = key;
+	}
+	
+	
+	/**
+	 * Create an authenticator which sends the password of the user, 
+	 * for servers which check credentials for each user.
+	 * @param password
+	 * @return
+	 */
+	public static DriverClientAuthenticator withPassword(String password) {
+		return new DriverClientAuthenticator(null, password);
 	}
 
 	
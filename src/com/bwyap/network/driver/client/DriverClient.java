@@ -1,5 +1,7 @@
 package com.bwyap.network.driver.client;
 
+import java.util.concurrent.ThreadFactory;
+
 import com.bwyap.network.client.Client;
 import com.bwyap.network.driver.authenticator.DriverClientAuthenticator;
 import com.bwyap.network.message.MessagePacket;
@@ -23,6 +25,12 @@ public class DriverClient extends Client {
 	}
 	
 
+	public DriverClient(String clientName, String serverAddress, int serverPort, DriverClientAuthenticator authenticator, ThreadFactory threadFactory) {
+		super(clientName, serverAddress, serverPort, authenticator, threadFactory);
+		
+	}
+	
+
 	public DriverClient(String clientName, DriverClientAuthenticator authenticator) {
 		super(clientName, authenticator);
 		
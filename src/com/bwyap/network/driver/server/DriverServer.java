@@ -2,8 +2,8 @@ package com.bwyap.network.driver.server;
 
 import java.net.Socket;
 import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
 
-import com.bwyap.network.ConnectionState;
 import com.bwyap.network.authenticator.ServerAuthenticator;
 import com.bwyap.network.driver.authenticator.DriverServerAuthenticator;
 import com.bwyap.network.server.ClientConnection;
@@ -41,14 +41,22 @@ public class DriverServer extends Server {
 	public DriverServer(String name, int port, final int maxConnections, DriverServerAuthenticator authenticator) {
 		super(name, port, maxConnections, authenticator);
 	}
+	
+	
+	/**
+	 * Create a DominationServer on the specified port which creates its threads using the given factory.
+	 * @param name
+	 * @param port
+	 * @param maxConnections the maximum number of connected clients allowed
+	 * @param threadFactory
+	 */
+	public DriverServer(String name, int port, final int maxConnections, DriverServerAuthenticator authenticator, ThreadFactory threadFactory) {
+		super(name, port, maxConnections, authenticator, threadFactory);
+	}
 
 
 	@Override
 	protected void pollClient(ClientConnection client) {
-		if (client.getConnectionState() == ConnectionState.TERMINATED) {
-			clients.remove(client);
-		}
-		
 		//TODO
 	}
 	
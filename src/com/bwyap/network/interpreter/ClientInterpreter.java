@@ -1,5 +1,7 @@
 package com.bwyap.network.interpreter;
 
+import java.util.UUID;
+
 import com.bwyap.network.client.Client;
 import com.bwyap.network.client.ClientLogger;
 import com.bwyap.network.message.MessagePacket;
@@ -39,6 +41,8 @@ public abstract class ClientInterpreter extends Interpreter {
 			disconnect(); break;
 		case "say":
 			say(args); break;
+		case "tell":
+			tell(args); break;
 		case "help":
 			help(args); break;
 		case "address":
@@ -74,7 +78,7 @@ public abstract class ClientInterpreter extends Interpreter {
 	 */
 	public void connect() {
 		if (!client.hasConnection()) {
-			new Thread(client, "client").start(); 
+			client.start(); 
 		}
 		else {
 			println("Already connected to a server. You must disconnect before connecting to another server.");
@@ -105,6 +109,28 @@ public abstract class ClientInterpreter extends Interpreter {
 	}
 	
 	
+	/**
+	 * Sends a message to another client, which the server relays to it.
+	 * @param args
+	 */
+	public void tell(String[] args) {
+		if (client.hasConnection()) {
+			UUID receiverID;
+			try {
+				receiverID = UUID.fromString(args[1]);
+			}
+			catch (IllegalArgumentException e) {
+				println("Invalid client ID: " + args[1]);
+				return;
+			}
+			
+			MessagePacket m = new MessagePacket(client.getID(), receiverID, MessageType.MESSAGE_CHAT, args);
+			client.sendToServer(m);
+		}
+		else println("No connection: unable to send message.");
+	}
+	
+	
 	/**
 	 * Displays or sets the IP and port that the client should connect to.
 	 * @param args
@@ -74,7 +74,8 @@ public abstract class ServerInterpreter extends Interpreter {
 		for (ClientConnection c : server.getClients()) {
 			print(c.clientIdentifier());
 			if (showExtraInfo) {
-				print(" | " + c.getState() + " @ " + c.getInetAddress().toString() + ":" + c.getPort());
+				print(" | " + c.getConnectionState() + " @ " + c.getInetAddress().toString() + ":" + c.getPort());
+				print(" | queued " + c.getOutboundDepth() + " (peak " + c.getOutboundPeak() + ", dropped " + c.getDroppedMessages() + ")");
 			}
 			println();
 		}
@@ -86,12 +87,8 @@ public abstract class ServerInterpreter extends Interpreter {
 	 * @param args
 	 */
 	private void say(String[] args) {
-		int count = 0;
-		for (ClientConnection c : server.getClients()) {
-			MessagePacket m = new MessagePacket(server.getID(), c.getServerID(), MessageType.MESSAGE_BROADCAST, args);
-			c.sendToClient(m);
-			count++;
-		}
+		MessagePacket m = new MessagePacket(server.getID(), server.getID(), MessageType.MESSAGE_BROADCAST, args);
+		int count = server.broadcast(m);
 		println("Message sent to " + count + (count == 1 ? " client." : " clients."));
 	}
 	
@@ -102,23 +99,10 @@ public abstract class ServerInterpreter extends Interpreter {
 	 * @param args
 	 */
 	private void whisper(String[] args) {
-		int hit = 0;
-		ClientConnection lastHit = null;
-		
-		for (ClientConnection c : server.getClients()) {
-			if (c.clientIdentifier().equals(args[1])) {
-				hit++;
-				lastHit = c;
-			}
-			else if (c.clientIdentifier().substring(0, 
-						c.clientIdentifier().length() > args[1].length() ? 
-						args[1].length() : c.clientIdentifier().length()).equals(args[1])) {
-				hit++;
-				lastHit = c;
-			}
-		}
+		int hit = server.getClients().countPrefix(args[1]);
+		ClientConnection lastHit = hit == 1 ? server.getClients().findPrefix(args[1]) : null;
 		
-		if (hit == 1) {
+		if (lastHit != null) {
 			MessagePacket m = new MessagePacket(server.getID(), lastHit.getID(), MessageType.MESSAGE_CHAT, args);
 			lastHit.sendToClient(m);
 			if (Server.DEV_DEBUG) println("Message sent to " + args[1]);
@@ -143,11 +127,9 @@ public abstract class ServerInterpreter extends Interpreter {
 			reason += args[i] + " ";
 		}
 		
-		synchronized (server.getClients()) {
-			for (ClientConnection c : server.getClients()) {
-				c.kick(reason);
-				count++;
-			}
+		for (ClientConnection c : server.getClients()) {
+			c.kick(reason);
+			count++;
 		}
 		
 		if (count > 0) {
@@ -170,13 +152,12 @@ public abstract class ServerInterpreter extends Interpreter {
 			reason += args[i] + " ";
 		}
 
-		for (ClientConnection c : server.getClients()) {
-			if (c.clientIdentifier().equals(args[1])) {
-				c.kick(reason);
-				println("Kicked " + c.clientIdentifier());
-				println("REASON: " + reason);
-				return;
-			}
+		ClientConnection c = server.getClients().find(args[1]);
+		if (c != null) {
+			c.kick(reason);
+			println("Kicked " + c.clientIdentifier());
+			println("REASON: " + reason);
+			return;
 		}
 		println("Client <" + args[1] + "> does not exist.");
 	}
@@ -0,0 +1,106 @@
+package com.bwyap.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Carries extensions to the authentication handshake, such as the capabilities of each end,
+ * in the body of a {@code CONNECTION} packet.
+ * <p>
+ * Handshake packets do not otherwise have a body, so extensions never change the data
+ * that is given to an authenticator, and peers which do not know about them ignore them.
+ * The body is only read as extensions if its type ID is {@code TYPE_ID};
+ * it holds the number of extensions followed by the name and value of each one.
+ * @author bwyap
+ *
+ */
+public final class HandshakeExtensions {
+
+	// Outside the range of IDs that typed messages can be registered with
+	public static final int TYPE_ID = MessageRegistry.MAX_TYPE_ID + 1;
+	
+	
+	private HandshakeExtensions() { }
+	
+	
+	/**
+	 * Adds an extension to a packet, replacing any extension it already has with the same name.
+	 * @param m
+	 * @param name
+	 * @param value
+	 */
+	public static void put(MessagePacket m, String name, String value) {
+		Map<String, String> extensions = read(m);
+		extensions.put(name, value);
+		write(m, extensions);
+	}
+	
+	
+	/**
+	 * Removes an extension from a packet, if it has one.
+	 * The body of the packet is cleared once it has no extensions left.
+	 * @param m
+	 * @param name
+	 * @return the value of the extension, or null if the packet did not have it
+	 */
+	public static String remove(MessagePacket m, String name) {
+		if (m == null) return null;
+		
+		Map<String, String> extensions = read(m);
+		String value = extensions.remove(name);
+		if (value != null) write(m, extensions);
+		return value;
+	}
+	
+	
+	/**
+	 * Reads the extensions in the body of a packet.
+	 * A body which is not a set of extensions, or which cannot be read, has none.
+	 * @param m
+	 * @return
+	 */
+	private static Map<String, String> read(MessagePacket m) {
+		Map<String, String> extensions = new LinkedHashMap<String, String>();
+		if (m.type != MessageType.CONNECTION || m.typeID != TYPE_ID || m.body == null) return extensions;
+		
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(m.body));
+			int count = in.readUnsignedShort();
+			for (int i = 0; i < count; i++) extensions.put(in.readUTF(), in.readUTF());
+		} catch (IOException e) {
+			extensions.clear();
+		}
+		return extensions;
+	}
+	
+	
+	private static void write(MessagePacket m, Map<String, String> extensions) {
+		if (extensions.isEmpty()) {
+			m.typeID = 0;
+			m.body = null;
+			return;
+		}
+		
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeShort(extensions.size());
+			for (Map.Entry<String, String> extension : extensions.entrySet()) {
+				out.writeUTF(extension.getKey());
+				out.writeUTF(extension.getValue());
+			}
+			out.flush();
+			m.typeID = TYPE_ID;
+			m.body = bytes.toByteArray();
+		} catch (IOException e) {
+			// Writing to a byte array only fails if a value is too long to encode
+			throw new IllegalArgumentException("Handshake extension is too long.", e);
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package com.bwyap.network.message;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A blocking first-in first-out queue of message packets with two lanes.
+ * Packets with a control type (see {@link MessageType#isControl()}) are taken 
+ * ahead of any other queued packets; within each lane packets keep the order 
+ * they were offered in. Offering and taking a packet are constant time.
+ * @author bwyap
+ *
+ */
+public class LaneMessageQueue implements MessageQueue {
+
+	private final Queue<MessagePacket> control = new ConcurrentLinkedQueue<MessagePacket>();
+	private final Queue<MessagePacket> bulk = new ConcurrentLinkedQueue<MessagePacket>();
+	
+	// One permit for each packet in the lanes
+	private final Semaphore available = new Semaphore(0);
+	
+	
+	@Override
+	public boolean offer(MessagePacket p) {
+		if (p.type != null && p.type.isControl()) control.offer(p);
+		else bulk.offer(p);
+		available.release();
+		return true;
+	}
+	
+	
+	@Override
+	public MessagePacket take() throws InterruptedException {
+		available.acquire();
+		return next();
+	}
+	
+	
+	@Override
+	public MessagePacket poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return available.tryAcquire(timeout, unit) ? next() : null;
+	}
+	
+	
+	@Override
+	public MessagePacket poll() {
+		return available.tryAcquire() ? next() : null;
+	}
+	
+	
+	@Override
+	public boolean isEmpty() {
+		return available.availablePermits() == 0;
+	}
+	
+	
+	@Override
+	public int size() {
+		return available.availablePermits();
+	}
+	
+	
+	/**
+	 * Takes the oldest packet which is not a control packet, if there is one.
+	 * Used to make room in a full queue.
+	 * @return the packet, or null if there are only control packets in the queue
+	 */
+	public MessagePacket pollBulk() {
+		if (!available.tryAcquire()) return null;
+		MessagePacket p = bulk.poll();
+		
+		// The permit belongs to a control packet
+		if (p == null) available.release();
+		return p;
+	}
+	
+	
+	/**
+	 * Removes the next packet once a permit has been acquired.
+	 * A packet is always added to a lane before its permit is released,
+	 * so one of the lanes must hold a packet for the caller.
+	 * @return
+	 */
+	private MessagePacket next() {
+		MessagePacket p = control.poll();
+		return p != null ? p : bulk.poll();
+	}
+	
+}
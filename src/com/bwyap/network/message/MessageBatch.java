@@ -0,0 +1,118 @@
+package com.bwyap.network.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs message packets with the same sender and receiver into a single {@code BATCH} packet,
+ * and unpacks them again on the receiving end.
+ * <p>
+ * The data of a batch packet holds each packed message in turn: the name of its type, 
+ * the number of strings in its data (-1 if it has no data), then the strings themselves.
+ * Packed messages share the timestamp of the batch.
+ * @author bwyap
+ *
+ */
+public class MessageBatch {
+
+	private MessageBatch() { }
+	
+	
+	/**
+	 * Packs messages into a batch packet.
+	 * @param packets messages which all have the same sender and receiver
+	 * @return
+	 * @throws IllegalArgumentException if there are no messages, their headers differ or any of them are typed
+	 */
+	public static MessagePacket pack(List<MessagePacket> packets) {
+		if (packets.isEmpty()) throw new IllegalArgumentException("Cannot pack an empty batch.");
+		MessagePacket first = packets.get(0);
+		
+		int length = 0;
+		for (MessagePacket p : packets) {
+			if (!same(p.senderID, first.senderID) || !same(p.receiverID, first.receiverID)) {
+				throw new IllegalArgumentException("Messages in a batch must have the same sender and receiver.");
+			}
+			if (p.type == MessageType.TYPED) {
+				throw new IllegalArgumentException("Typed messages cannot be batched.");
+			}
+			length += 2 + (p.data != null ? p.data.length : 0);
+		}
+		
+		String[] data = new String[length];
+		int i = 0;
+		for (MessagePacket p : packets) {
+			data[i++] = p.type != null ? p.type.name() : null;
+			if (p.data != null) {
+				data[i++] = Integer.toString(p.data.length);
+				System.arraycopy(p.data, 0, data, i, p.data.length);
+				i += p.data.length;
+			}
+			else data[i++] = "-1";
+		}
+		
+		return new MessagePacket(first.senderID, first.receiverID, MessageType.BATCH, data);
+	}
+	
+	
+	/**
+	 * Unpacks the messages in a batch packet, in the order they were packed.
+	 * @param batch
+	 * @return
+	 * @throws IllegalArgumentException if the batch is malformed
+	 */
+	public static List<MessagePacket> unpack(MessagePacket batch) {
+		String[] data = batch.getData();
+		List<MessagePacket> packets = new ArrayList<MessagePacket>();
+		if (data == null) return packets;
+		
+		int i = 0;
+		while (i < data.length) {
+			if (i + 2 > data.length) throw new IllegalArgumentException("Truncated batch.");
+			MessageType type = data[i] != null ? MessageType.valueOf(data[i]) : null;
+			int length = Integer.parseInt(data[i + 1]);
+			i += 2;
+			
+			String[] strings = null;
+			if (length >= 0) {
+				if (length > data.length - i) throw new IllegalArgumentException("Truncated batch.");
+				strings = new String[length];
+				System.arraycopy(data, i, strings, 0, length);
+				i += length;
+			}
+			packets.add(new MessagePacket(batch.timestamp, batch.senderID, batch.receiverID, type, strings));
+		}
+		return packets;
+	}
+	
+	
+	/**
+	 * Checks whether a batch packet contains a message with a control type, without unpacking it.
+	 * @param batch
+	 * @return
+	 * @throws IllegalArgumentException if the batch is malformed
+	 */
+	public static boolean containsControl(MessagePacket batch) {
+		String[] data = batch.getData();
+		if (data == null) return false;
+		
+		int i = 0;
+		while (i < data.length) {
+			if (i + 2 > data.length) throw new IllegalArgumentException("Truncated batch.");
+			MessageType type = data[i] != null ? MessageType.valueOf(data[i]) : null;
+			if (type != null && type.isControl()) return true;
+			
+			int length = Math.max(Integer.parseInt(data[i + 1]), 0);
+			i += 2;
+			if (length > data.length - i) throw new IllegalArgumentException("Truncated batch.");
+			i += length;
+		}
+		return false;
+	}
+	
+	
+	private static boolean same(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+	
+}
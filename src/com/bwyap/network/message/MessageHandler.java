@@ -0,0 +1,21 @@
+package com.bwyap.network.message;
+
+/**
+ * Handles typed messages of one class received from the other end of a connection.
+ * @author bwyap
+ *
+ * @param <C> the end of the connection which received the message, such as a {@code Client}
+ * @param <T> the class of the message
+ */
+public interface MessageHandler<C, T> {
+
+	
+	/**
+	 * Handles a message.
+	 * @param context the end of the connection which received the message
+	 * @param packet the packet the message was received in
+	 * @param message the decoded message
+	 */
+	public void handle(C context, MessagePacket packet, T message);
+	
+}
@@ -19,6 +19,10 @@ public class MessagePacket implements Serializable, Comparable<MessagePacket> {
 	public MessageType type;
 	public String[] data;
 	
+	// The ID and encoded body of a TYPED message, see MessageRegistry
+	public int typeID;
+	public byte[] body;
+	
 	/**
 	 * Create a message packet with a specified timestamp
 	 * @param timestamp
@@ -52,9 +56,57 @@ public class MessagePacket implements Serializable, Comparable<MessagePacket> {
 	}
 
 	
+	/**
+	 * Create a typed message packet with a specified timestamp
+	 * @param timestamp
+	 * @param senderID
+	 * @param receiverID
+	 * @param typeID
+	 * @param body
+	 */
+	public MessagePacket(long timestamp, UUID senderID, UUID receiverID, int typeID, byte[] body) {
+		this(timestamp, senderID, receiverID, MessageType.TYPED, null);
+		this.typeID = typeID;
+		this.body = body;
+	}
+	
+	
+	/**
+	 * Create a typed message packet with a timestamp with the current system time
+	 * @param senderID
+	 * @param receiverID
+	 * @param typeID
+	 * @param body
+	 */
+	public MessagePacket(UUID senderID, UUID receiverID, int typeID, byte[] body) {
+		this(System.currentTimeMillis(), senderID, receiverID, typeID, body);
+	}
+	
+	
+	/**
+	 * Gets the data of the packet.
+	 * Packets which are decoded lazily decode their data the first time this is called,
+	 * so this should be used instead of the {@code data} field for packets read from a connection 
+	 * until they have been passed to a handler.
+	 * @return
+	 */
+	public String[] getData() {
+		return data;
+	}
+	
+	
+	/**
+	 * Checks if the packet has data, without decoding the data of a lazily decoded packet.
+	 * @return
+	 */
+	public boolean hasData() {
+		return data != null;
+	}
+	
+	
 	@Override
 	public int compareTo(MessagePacket o) {
-		return (int) (o.timestamp - this.timestamp);
+		return Long.compare(this.timestamp, o.timestamp);
 	}
 	
 }
@@ -0,0 +1,59 @@
+package com.bwyap.network.message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A blocking queue of message packets passed between the threads of a connection.
+ * @author bwyap
+ *
+ */
+public interface MessageQueue {
+
+	
+	/**
+	 * Adds a packet to the queue.
+	 * @param p
+	 * @return true if the packet was added
+	 */
+	public boolean offer(MessagePacket p);
+	
+	
+	/**
+	 * Takes the next packet, waiting until one is available.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public MessagePacket take() throws InterruptedException;
+	
+	
+	/**
+	 * Takes the next packet, waiting up to the specified time for one to become available.
+	 * @param timeout
+	 * @param unit
+	 * @return the packet, or null if the time elapsed
+	 * @throws InterruptedException
+	 */
+	public MessagePacket poll(long timeout, TimeUnit unit) throws InterruptedException;
+	
+	
+	/**
+	 * Takes the next packet if one is available.
+	 * @return the packet, or null if the queue is empty
+	 */
+	public MessagePacket poll();
+	
+	
+	/**
+	 * Checks if the queue is empty.
+	 * @return
+	 */
+	public boolean isEmpty();
+	
+	
+	/**
+	 * Gets the number of packets in the queue.
+	 * @return
+	 */
+	public int size();
+	
+}
@@ -0,0 +1,138 @@
+package com.bwyap.network.message;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of typed messages declared by an application, 
+ * which are sent as {@code TYPED} packets without adding to {@code MessageType}.
+ * <p>
+ * Each message class is registered with a type ID, a codec for its body and optionally a handler.
+ * Both ends of a connection must register the same ID and codec for each class.
+ * Received messages are dispatched through an array indexed by type ID, 
+ * and their bodies are decoded straight into the message class without parsing strings.
+ * @author bwyap
+ *
+ * @param <C> the end of the connection which receives the messages, such as a {@code Client}
+ */
+public class MessageRegistry<C> {
+
+	public static final int MAX_TYPE_ID = 0xFFFF;
+	
+	private volatile Registration<C, ?>[] registrations = newArray(16);
+	private final Map<Class<?>, Registration<C, ?>> byClass = new ConcurrentHashMap<Class<?>, Registration<C, ?>>();
+	
+	
+	/**
+	 * Registers a message class.
+	 * @param typeID an ID from 0 to {@code MAX_TYPE_ID} which is not already used
+	 * @param type the class of the message
+	 * @param codec the codec for the body of the message
+	 * @param handler the handler for received messages, or null if the messages are only sent
+	 * @throws IllegalArgumentException if the ID is out of range, or the ID or class is already registered
+	 */
+	public synchronized <T> void register(int typeID, Class<T> type, TypedMessageCodec<T> codec, MessageHandler<? super C, ? super T> handler) {
+		if (typeID < 0 || typeID > MAX_TYPE_ID) throw new IllegalArgumentException("Invalid type ID: " + typeID);
+		if (byClass.containsKey(type)) throw new IllegalArgumentException(type.getName() + " is already registered.");
+		
+		Registration<C, ?>[] current = registrations;
+		if (typeID < current.length && current[typeID] != null) {
+			throw new IllegalArgumentException("Type ID " + typeID + " is already registered to " + current[typeID].type.getName());
+		}
+		
+		Registration<C, T> registration = new Registration<C, T>(typeID, type, codec, handler);
+		Registration<C, ?>[] updated = Arrays.copyOf(current, Math.max(current.length, Integer.highestOneBit(typeID) * 2));
+		updated[typeID] = registration;
+		byClass.put(type, registration);
+		registrations = updated;
+	}
+	
+	
+	/**
+	 * Encodes a message into a {@code TYPED} packet.
+	 * @param senderID
+	 * @param receiverID
+	 * @param message
+	 * @return
+	 * @throws IOException if the message could not be encoded
+	 * @throws IllegalArgumentException if the class of the message is not registered
+	 */
+	public <T> MessagePacket pack(UUID senderID, UUID receiverID, T message) throws IOException {
+		@SuppressWarnings("unchecked")
+		Registration<C, T> registration = (Registration<C, T>) byClass.get(message.getClass());
+		if (registration == null) throw new IllegalArgumentException(message.getClass().getName() + " is not registered.");
+		
+		return new MessagePacket(senderID, receiverID, registration.typeID, registration.codec.encode(message));
+	}
+	
+	
+	/**
+	 * Decodes the message in a {@code TYPED} packet.
+	 * @param m
+	 * @return the message, or null if its type ID is not registered
+	 * @throws IOException if the body is not a valid message
+	 */
+	public Object unpack(MessagePacket m) throws IOException {
+		Registration<C, ?> registration = lookup(m);
+		return registration != null ? registration.codec.decode(m.body) : null;
+	}
+	
+	
+	/**
+	 * Decodes the message in a {@code TYPED} packet and passes it to the handler for its type.
+	 * @param context the end of the connection which received the message
+	 * @param m
+	 * @return true if the message was handled, or false if there is no handler for its type ID
+	 * @throws IOException if the body is not a valid message
+	 */
+	public boolean dispatch(C context, MessagePacket m) throws IOException {
+		Registration<C, ?> registration = lookup(m);
+		if (registration == null || registration.handler == null) return false;
+		
+		registration.handle(context, m);
+		return true;
+	}
+	
+	
+	private Registration<C, ?> lookup(MessagePacket m) {
+		if (m.type != MessageType.TYPED || m.body == null) return null;
+		
+		Registration<C, ?>[] current = registrations;
+		return m.typeID >= 0 && m.typeID < current.length ? current[m.typeID] : null;
+	}
+	
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <C> Registration<C, ?>[] newArray(int length) {
+		return new Registration[length];
+	}
+	
+	
+	/**
+	 * The codec and handler registered for a type ID.
+	 */
+	private static class Registration<C, T> {
+		
+		final int typeID;
+		final Class<T> type;
+		final TypedMessageCodec<T> codec;
+		final MessageHandler<? super C, ? super T> handler;
+		
+		
+		Registration(int typeID, Class<T> type, TypedMessageCodec<T> codec, MessageHandler<? super C, ? super T> handler) {
+			this.typeID = typeID;
+			this.type = type;
+			this.codec = codec;
+			this.handler = handler;
+		}
+		
+		
+		void handle(C context, MessagePacket m) throws IOException {
+			handler.handle(context, m, codec.decode(m.body));
+		}
+	}
+	
+}
@@ -14,5 +14,17 @@ public enum MessageType implements Serializable {
 	MESSAGE_CHAT,
 	CONNECTION,
 	KICK,
-	SERVER_FULL;
+	SERVER_FULL,
+	BATCH,
+	TYPED;
+	
+	
+	/**
+	 * Checks if messages of this type control the connection.
+	 * Control messages are delivered ahead of any other queued messages.
+	 * @return
+	 */
+	public boolean isControl() {
+		return this == CONNECTION || this == KICK || this == SERVER_FULL;
+	}
 }
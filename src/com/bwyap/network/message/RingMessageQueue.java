@@ -0,0 +1,190 @@
+package com.bwyap.network.message;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated, lock-free ring buffer of message packets for exactly one 
+ * producing thread and one consuming thread. Packets are taken in the order 
+ * they were offered; there are no priority lanes.
+ * <p>
+ * When the buffer is full the producer waits for space, and when it is empty 
+ * the consumer waits for a packet, using the configured {@link WaitStrategy}.
+ * @author bwyap
+ *
+ */
+public class RingMessageQueue implements MessageQueue {
+
+	// Number of times a parking thread yields before it parks
+	private static final int YIELDS_BEFORE_PARK = 100;
+	
+	// Longest a thread parks before checking the queue again
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private final MessagePacket[] buffer;
+	private final int mask;
+	private final WaitStrategy strategy;
+	
+	// Index of the next packet to take; only written by the consumer
+	private final AtomicLong head = new AtomicLong(0);
+	
+	// Index of the next free slot; only written by the producer
+	private final AtomicLong tail = new AtomicLong(0);
+	
+	// Threads parked waiting for the other side
+	private volatile Thread parkedConsumer;
+	private volatile Thread parkedProducer;
+	
+	
+	/**
+	 * Create a ring buffer which parks waiting threads.
+	 * @param capacity the capacity, rounded up to a power of two
+	 */
+	public RingMessageQueue(int capacity) {
+		this(capacity, WaitStrategy.PARK);
+	}
+	
+	
+	/**
+	 * Create a ring buffer.
+	 * @param capacity the capacity, rounded up to a power of two
+	 * @param strategy how threads wait on the queue
+	 */
+	public RingMessageQueue(int capacity, WaitStrategy strategy) {
+		if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		this.buffer = new MessagePacket[size];
+		this.mask = size - 1;
+		this.strategy = strategy;
+	}
+	
+	
+	/**
+	 * Adds a packet to the queue, waiting for space if the buffer is full.
+	 * @return false if the producer was interrupted while waiting for space
+	 */
+	@Override
+	public boolean offer(MessagePacket p) {
+		long t = tail.get();
+		int attempt = 0;
+		
+		while (t - head.get() == buffer.length) {
+			if (Thread.currentThread().isInterrupted()) return false;
+			if (strategy == WaitStrategy.PARK && attempt >= YIELDS_BEFORE_PARK) {
+				parkedProducer = Thread.currentThread();
+				if (t - head.get() == buffer.length) LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				parkedProducer = null;
+			}
+			else pause();
+			attempt++;
+		}
+		
+		buffer[(int) t & mask] = p;
+		tail.set(t + 1);
+		
+		Thread consumer = parkedConsumer;
+		if (consumer != null) LockSupport.unpark(consumer);
+		return true;
+	}
+	
+	
+	@Override
+	public MessagePacket take() throws InterruptedException {
+		long h = head.get();
+		int attempt = 0;
+		
+		while (h == tail.get()) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			await(h, attempt++, MAX_PARK_NANOS);
+		}
+		return remove(h);
+	}
+	
+	
+	@Override
+	public MessagePacket poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long h = head.get();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int attempt = 0;
+		
+		while (h == tail.get()) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) return null;
+			await(h, attempt++, Math.min(remaining, MAX_PARK_NANOS));
+		}
+		return remove(h);
+	}
+	
+	
+	@Override
+	public MessagePacket poll() {
+		long h = head.get();
+		return h != tail.get() ? remove(h) : null;
+	}
+	
+	
+	@Override
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+	
+	
+	@Override
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+	
+	
+	/**
+	 * Gets the number of packets the buffer can hold.
+	 * @return
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+	
+	
+	/**
+	 * Waits once for a packet to be offered at the specified index.
+	 * @param h
+	 * @param attempt
+	 * @param nanos the longest time to park for
+	 */
+	private void await(long h, int attempt, long nanos) {
+		if (strategy == WaitStrategy.PARK && attempt >= YIELDS_BEFORE_PARK) {
+			parkedConsumer = Thread.currentThread();
+			if (h == tail.get()) LockSupport.parkNanos(this, nanos);
+			parkedConsumer = null;
+		}
+		else pause();
+	}
+	
+	
+	/**
+	 * Removes the packet at the specified index and frees its slot.
+	 * @param h
+	 * @return
+	 */
+	private MessagePacket remove(long h) {
+		int index = (int) h & mask;
+		MessagePacket p = buffer[index];
+		buffer[index] = null;
+		head.set(h + 1);
+		
+		Thread producer = parkedProducer;
+		if (producer != null) LockSupport.unpark(producer);
+		return p;
+	}
+	
+	
+	/**
+	 * Waits briefly without parking.
+	 */
+	private void pause() {
+		if (strategy != WaitStrategy.BUSY_SPIN) Thread.yield();
+	}
+	
+}
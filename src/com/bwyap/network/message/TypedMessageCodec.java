@@ -0,0 +1,31 @@
+package com.bwyap.network.message;
+
+import java.io.IOException;
+
+/**
+ * Encodes a typed message to the body of a {@code TYPED} packet and decodes it again.
+ * @author bwyap
+ *
+ * @param <T> the class of the message
+ */
+public interface TypedMessageCodec<T> {
+
+	
+	/**
+	 * Encodes a message.
+	 * @param message
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] encode(T message) throws IOException;
+	
+	
+	/**
+	 * Decodes a message from the body of a packet.
+	 * @param body
+	 * @return
+	 * @throws IOException if the body is not a valid message
+	 */
+	public T decode(byte[] body) throws IOException;
+	
+}
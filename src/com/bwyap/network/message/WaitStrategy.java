@@ -0,0 +1,27 @@
+package com.bwyap.network.message;
+
+/**
+ * Ways a thread can wait on a {@link RingMessageQueue}.
+ * @author bwyap
+ *
+ */
+public enum WaitStrategy {
+	
+	/**
+	 * Keep checking the queue without giving up the CPU.
+	 * Lowest hand-off latency, but each waiting thread occupies a core.
+	 */
+	BUSY_SPIN,
+	
+	/**
+	 * Yield the CPU to other threads between checks.
+	 */
+	YIELD,
+	
+	/**
+	 * Yield for a short while, then park until the other side wakes the thread.
+	 * Uses no CPU while the queue stays idle.
+	 */
+	PARK;
+	
+}
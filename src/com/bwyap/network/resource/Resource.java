@@ -2,6 +2,7 @@ package com.bwyap.network.resource;
 
 import java.io.File;
 
+import com.bwyap.network.authenticator.CredentialFile;
 import com.bwyap.utility.resource.ResourceLoader;
 
 /**
@@ -32,6 +33,7 @@ public class Resource {
 	
 	
 	private static final File EX_DOMINATIONCONFIG_JSON = new File("data/config/config.json");
+	private static final File EX_CREDENTIALS = new File("data/credentials");
 	
 	
 	/* ==========
@@ -41,6 +43,13 @@ public class Resource {
 	public static Settings Settings;
 	
 	
+	/* ===========
+	 * Credentials
+	 * ===========
+	 */
+	public static CredentialFile Credentials;
+	
+	
 	/* =======
 	 * Shaders
 	 * =======
@@ -95,4 +104,13 @@ public class Resource {
 	}
 	
 	
+	/**
+	 * Loads the credentials of the users who may connect to a hosted server, if a credential file has been provided.
+	 * Only a server needs these, so they are not loaded by {@code load}.
+	 */
+	public static void loadCredentials() {
+		Credentials = EX_CREDENTIALS.exists() ? ResourceLoader.loadCredentials(EX_CREDENTIALS) : null;
+	}
+	
+	
 }
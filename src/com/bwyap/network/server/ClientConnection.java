@@ -1,30 +1,75 @@
 package com.bwyap.network.server;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import com.bwyap.network.ConnectionState;
+import com.bwyap.network.OverflowPolicy;
 import com.bwyap.network.authenticator.ServerAuthenticator;
 import com.bwyap.network.authenticator.ServerAuthenticatorInterface;
+import com.bwyap.network.authenticator.SessionToken;
+import com.bwyap.network.codec.Capabilities;
+import com.bwyap.network.codec.FlushPolicy;
+import com.bwyap.network.codec.Frame;
+import com.bwyap.network.codec.FrameDecoder;
+import com.bwyap.network.codec.FramedPacketInput;
+import com.bwyap.network.codec.FramedPacketOutput;
+import com.bwyap.network.codec.MessageCodec;
+import com.bwyap.network.codec.ObjectPacketInput;
+import com.bwyap.network.codec.ObjectPacketOutput;
+import com.bwyap.network.codec.PacketInput;
+import com.bwyap.network.codec.PacketOutput;
+import com.bwyap.network.codec.ResetPolicy;
+import com.bwyap.network.codec.SerializedMessageCodec;
+import com.bwyap.network.codec.StatefulMessageCodec;
+import com.bwyap.network.message.LaneMessageQueue;
+import com.bwyap.network.message.MessageBatch;
 import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageQueue;
+import com.bwyap.network.message.MessageRegistry;
+import com.bwyap.network.message.MessageType;
+import com.bwyap.network.message.RingMessageQueue;
+import com.bwyap.utility.ThreadFactories;
 import com.bwyap.utility.interpreter.InterpreterInterface;
 
 /**
  * Used to monitor the socket that is connected to the client by 
  * processing any incoming messages and sending messages as directed by the server.
+ * <p>
+ * By default the connection runs on its own thread and starts two more threads to read and write the socket.
+ * These threads are created by the connection's {@code ThreadFactory}, which can be set to create virtual threads.
+ * When the server is running in selector mode, the connection is instead attached to a 
+ * {@code SelectorChannel} and received messages are handled on the server's event loop threads.
+ * <p>
+ * If the connection is given a dispatcher, received messages are handled on the dispatcher 
+ * instead of on a thread of the connection's own. The dispatcher must run tasks one at a time 
+ * in order, such as a {@code SerialExecutor} on a pool shared by all connections.
+ * <p>
+ * If the connection is given a {@code SessionTable}, the client is issued a token when it is authenticated.
+ * When the connection is lost, the session is kept in the table so that the client can reconnect with the 
+ * token to get back its ID and the messages which were still waiting to be sent to it.
  * 
  * @author bwyap
  *
  */
-public class ClientConnection extends Thread {
+public class ClientConnection implements Runnable {
 	
 	public static final int TIMEOUT_LIMIT = 2;
 	public static final TimeUnit TIMEOUT_UNIT = TimeUnit.SECONDS;
@@ -38,48 +83,102 @@ public class ClientConnection extends Thread {
 	protected volatile ConnectionState state;
 	protected volatile boolean alive = false;
 	
-	protected ObjectOutputStream out = null;
-	protected ObjectInputStream in = null;
+	protected PacketOutput out = null;
+	protected PacketInput in = null;
+	protected volatile MessageCodec codec = new SerializedMessageCodec();
+	protected List<MessageCodec> preferredCodecs = Collections.emptyList();
+	protected volatile Capabilities capabilities;
+	protected boolean framed = false;
+	protected ResetPolicy resetPolicy = ResetPolicy.DEFAULT;
+	protected FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+	protected ThreadFactory threadFactory;
+	protected Executor dispatcher;
+	protected Executor authenticationExecutor;
+	protected Thread thread;
 	protected Thread outThread;
 	protected Thread inThread;
 	
+	volatile SelectorChannel channel;
+	
 	protected ServerAuthenticatorInterface authenticator;
 	protected InterpreterInterface interpreter;
+	protected ConnectionListener listener;
+	protected MessageRegistry<ClientConnection> registry;
+	protected ClientRegistry relay;
+	protected SessionTable sessions;
+	protected volatile String sessionToken;
+	
+	protected MessageQueue incomingMessageQueue = new LaneMessageQueue();
+	
+	protected LaneMessageQueue outgoingMessageQueue = new LaneMessageQueue();
 	
-	protected PriorityBlockingQueue<MessagePacket> incomingMessageQueue = 
-			new PriorityBlockingQueue<MessagePacket>();
+	// Messages which have been queued but not yet written to the socket
+	protected final AtomicInteger pendingMessages = new AtomicInteger(0);
 	
-	protected PriorityBlockingQueue<MessagePacket> outgoingMessageQueue = 
-			new PriorityBlockingQueue<MessagePacket>();
+	protected int outboundLimit = 0;
+	protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	
+	// Set on event loop and dispatcher threads, which serve many connections and must never wait for one of them
+	private static final ThreadLocal<Boolean> SHARED_THREAD = new ThreadLocal<Boolean>();
+	protected volatile int outboundPeak = 0;
+	protected final AtomicLong droppedMessages = new AtomicLong(0);
+	private final Object outboundLock = new Object();
+	private volatile int blockedProducers = 0;
+	
+	// Messages received while the credentials of the client are being checked
+	private final Object authenticationLock = new Object();
+	private final AtomicBoolean authenticating = new AtomicBoolean(false);
+	private volatile List<MessagePacket> held;
 	
 	
 	public ClientConnection(UUID ServerID, Socket socket, ServerLogger logger, ServerAuthenticator authenticator, InterpreterInterface interpreter) {
+		this(ServerID, socket, logger, authenticator, interpreter, ThreadFactories.platform());
+	}
+	
+	
+	public ClientConnection(UUID ServerID, Socket socket, ServerLogger logger, ServerAuthenticator authenticator, InterpreterInterface interpreter, ThreadFactory threadFactory) {
 		this.SERVERID = ServerID;
 		this.socket = socket;
 		this.logger = logger;
 		this.authenticator = authenticator;
 		this.interpreter = interpreter;
-		this.authenticator.setUUID(SERVERID);
+		this.threadFactory = threadFactory;
 		this.state = ConnectionState.NEW;
-		this.setName("new-client");
+	}
+	
+	
+	/**
+	 * Start the thread which runs the connection.
+	 */
+	public void start() {
+		thread = ThreadFactories.start(threadFactory, this, "new-client");
 	}
 	
 	
 	@Override
 	public void run() {
 		try {
-			out = new ObjectOutputStream(socket.getOutputStream());
-			in = new ObjectInputStream(socket.getInputStream());
+			openStreams();
 			
-			this.alive = true;
-			this.state = ConnectionState.AUTHENTICATE; 
+			synchronized (this) {
+				// The handshake deadline may have passed while waiting for the client to open its stream
+				if (state == ConnectionState.TERMINATED) return;
+				this.alive = true;
+			}
+			if (state == ConnectionState.NEW) setState(ConnectionState.AUTHENTICATE);
 			
-			// Start threads for sending and receiving messages
-			outThread = new Thread(new OutgoingProcessor(), "outgoing");
-			outThread.start();
+			// Start threads for sending and receiving messages.
+			// The authentication request is queued before anything is received so that it is sent
+			// ahead of the response to a client which sent its authenticator without waiting for it.
+			outThread = ThreadFactories.start(threadFactory, new OutgoingProcessor(), "outgoing");
+			if (dispatcher != null && state == ConnectionState.AUTHENTICATE) requestAuthentication();
+			inThread = ThreadFactories.start(threadFactory, new IncomingProcessor(), "incoming");
 			
-			inThread = new Thread(new IncomingProcessor(), "incoming");
-			inThread.start();
+			// Messages are handled by the dispatcher so this thread is no longer needed
+			if (dispatcher != null) {
+				if (state == ConnectionState.DISCONNECTING) dispatcher.execute(new Disconnect());
+				return;
+			}
 			
 			// main loop for processing messages
 			while (alive) {
@@ -87,11 +186,142 @@ public class ClientConnection extends Thread {
 			}	
 		}
 		catch (IOException e) {
-			e.printStackTrace();
+			if (state != ConnectionState.TERMINATED) e.printStackTrace();
 		}
 	}
 	
 
+	/**
+	 * Opens the streams for the connection using the same wire format as the client.
+	 * Clients using the framed format send a preamble first; anything else is 
+	 * treated as a Java serialization stream.
+	 * @throws IOException
+	 */
+	private void openStreams() throws IOException {
+		BufferedInputStream stream = new BufferedInputStream(socket.getInputStream(), PacketInput.BUFFER_SIZE);
+		
+		if (Frame.peekPreamble(stream)) {
+			framed = true;
+			in = new FramedPacketInput(stream, new FrameDecoder(true));
+			out = new FramedPacketOutput(socket.getOutputStream(), codec);
+		}
+		else {
+			out = new ObjectPacketOutput(socket.getOutputStream(), resetPolicy);
+			in = new ObjectPacketInput(stream);
+		}
+	}
+	
+	
+	/**
+	 * Attaches the connection to a channel managed by a selector event loop.
+	 * The connection does not start any threads of its own once it is attached.
+	 * @param channel
+	 */
+	void attach(SelectorChannel channel) {
+		this.channel = channel;
+		this.framed = true;
+		this.alive = true;
+		if (state == ConnectionState.NEW) setState(ConnectionState.AUTHENTICATE);
+	}
+	
+	
+	/**
+	 * Hands a message received from the client to the connection to be processed.
+	 * @param m
+	 */
+	void receive(MessagePacket m) {
+		// Packets that arrive after the connection has closed are dropped without decoding their data
+		if (state == ConnectionState.TERMINATED) return;
+		if (!wellFormed(m)) {
+			logger.pushError("Dropped malformed " + m.type + " message from " + clientIdentifier() + ".");
+			return;
+		}
+		if (held != null && hold(m)) return;
+		if (state == ConnectionState.CONNECTED && relay(m)) return;
+		
+		if (m.type == MessageType.BATCH) {
+			List<MessagePacket> packets;
+			try {
+				packets = MessageBatch.unpack(m);
+			} catch (IllegalArgumentException e) {
+				logger.pushError("Received invalid batch from " + clientIdentifier() + ": " + e.getMessage());
+				return;
+			}
+			for (MessagePacket p : packets) receive(p);
+			return;
+		}
+		
+		if (dispatcher != null) dispatcher.execute(new Dispatch(m));
+		else if (channel != null) dispatch(m);
+		else if (!incomingMessageQueue.offer(m)) {
+			// Only a ring buffer refuses a packet, when the reader is interrupted while waiting for room
+			logger.pushError("Dropped message from " + clientIdentifier() + ": interrupted while waiting for room in the incoming queue.");
+			terminateConnection();
+		}
+	}
+	
+	
+	/**
+	 * Checks that a message has what every handler expects of it: a type, and data for chat messages.
+	 * The data of a lazily decoded packet is not decoded by this check.
+	 * @param m
+	 * @return
+	 */
+	private static boolean wellFormed(MessagePacket m) {
+		if (m.type == null) return false;
+		if (m.type == MessageType.MESSAGE_CHAT || m.type == MessageType.MESSAGE_BROADCAST) return m.hasData();
+		return true;
+	}
+	
+	
+	/**
+	 * Terminates the connection after handling one of its messages failed unexpectedly,
+	 * so that the thread which was handling it can carry on serving other connections.
+	 * @param e
+	 */
+	void failed(RuntimeException e) {
+		logger.pushError("Error handling message from " + clientIdentifier() + ": " + e);
+		if (Server.DEV_DEBUG) e.printStackTrace(logger.getStream());
+		terminateConnection();
+	}
+	
+	
+	/**
+	 * Holds a message until the check of the client's credentials has completed.
+	 * @param m
+	 * @return true if the message was held
+	 */
+	private boolean hold(MessagePacket m) {
+		synchronized (authenticationLock) {
+			if (held == null) return false;
+			held.add(m);
+			return true;
+		}
+	}
+	
+	
+	/**
+	 * Handles a message on a selector event loop or a dispatcher.
+	 * This performs the same work as {@code tick} without blocking on the incoming queue.
+	 * @param m
+	 */
+	void dispatch(MessagePacket m) {
+		// A packet queued before the check of the credentials started is held like one received after it
+		if (held != null && hold(m)) return;
+		
+		switch (state) {
+		case AUTHENTICATE:
+			authenticate(m);
+			break;
+		case CONNECTED:
+			if (!relay(m)) processMessage(decoded(m));
+			break;
+		default:
+			break;
+		}
+	}
+	
+	
 	/**
 	 * This method should be called every tick to handle any received messages.
 	 */
@@ -104,7 +334,7 @@ public class ClientConnection extends Thread {
 			MessagePacket m;
 			try {
 				m = incomingMessageQueue.poll(TIMEOUT_LIMIT, TIMEOUT_UNIT);
-				processMessage(m);
+				if (!relay(m)) processMessage(decoded(m));
 			} catch (InterruptedException e) { }
 			break;
 		case DISCONNECTING:
@@ -117,50 +347,244 @@ public class ClientConnection extends Thread {
 	
 	
 	private void processAuthentication() {
-		//Request authentication
-		if (outgoingMessageQueue.isEmpty()) {
-			//Authentication message should be the first message in the queue
-			//If it isn't, there may be a disconnect message in the queue.
-			outgoingMessageQueue.offer(authenticator.generateAuthenticationRequestMessage(serverAssignedID));
-		}
+		requestAuthentication();
 		
 		// Get authentication
 		MessagePacket m = null;
 		try {
 			if (Server.DEV_DEBUG) logger.pushCon("Awaiting authentication message from client...");
-			m = incomingMessageQueue.take();
+			// Wait in steps so that the thread stops if the connection is terminated at the handshake deadline
+			while (m == null && alive) m = incomingMessageQueue.poll(TIMEOUT_LIMIT, TIMEOUT_UNIT);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
 
-		// Authenticate message
+		authenticate(m);
+	}
+	
+	
+	/**
+	 * Sends the authentication request to the client.
+	 * Clients using the framed format are also sent the capabilities of the server.
+	 */
+	void requestAuthentication() {
+		if (outgoingMessageQueue.isEmpty()) {
+			//Authentication message should be the first message in the queue
+			//If it isn't, there may be a disconnect message in the queue.
+			MessagePacket request = authenticator.generateAuthenticationRequestMessage(serverAssignedID);
+			if (framed) Capabilities.attach(request, Capabilities.local());
+			sendToClient(request);
+		}
+	}
+	
+	
+	/**
+	 * Checks the authentication message sent by the client and 
+	 * moves the connection to the {@code CONNECTED} state if it is valid.
+	 * A client which presents the token of a session that is still held is not authenticated again;
+	 * it is given back its ID and is sent the messages that were waiting for it after the response.
+	 * <p>
+	 * If the connection has an authentication executor, the credentials are checked on it.
+	 * Connections on an event loop or a dispatcher do not wait for the check to complete; 
+	 * messages received from the client in the meantime are held and handled once it has.
+	 * Only the first message from the client is checked; any other received before the handshake
+	 * completes is dropped.
+	 * @param m
+	 */
+	private void authenticate(final MessagePacket m) {
 		if (m != null) {
-			if (authenticator.authenticateResponse(m)) {
-				if (Server.DEV_DEBUG) logger.pushCon("Received valid authentication message from <" + m.data[0] + ">");
-				clientName = m.data[0];
-				
-				//Assign a new UUID to the client
-				serverAssignedID = UUID.randomUUID();
-				this.setName(clientIdentifier());
-				
-				// Send message
-				MessagePacket response = authenticator.generateResponse(serverAssignedID);
-				logger.pushCon("Client connected! Sending response to client with assigned ID " + serverAssignedID);
-				sendToClient(response);
-				
-				//Change state
-				state = ConnectionState.CONNECTED;
+			if (!authenticating.compareAndSet(false, true)) {
+				logger.pushError("Dropped " + m.type + " message from " + getInetAddress() + ": client is still being authenticated.");
+				return;
+			}
+			
+			decoded(m);
+			final Capabilities advertised = Capabilities.detach(m);
+			String token = SessionToken.detach(m);
+			SessionTable.Session session = token != null && sessions != null ? sessions.resume(token) : null;
+			
+			if (session != null) establish(m, advertised, session);
+			else if (authenticationExecutor == null) verified(m, advertised, authenticator.authenticateResponse(m));
+			else if (channel == null && dispatcher == null) {
+				// The connection thread has nothing else to do until the client is authenticated
+				verified(m, advertised, await(authenticator.authenticateResponseAsync(m, authenticationExecutor)));
 			}
 			else {
-				logger.pushError("Received invalid authentication message from <" + m.data[0] + ">");
-				
-				//Change state
-				state = ConnectionState.DISCONNECTING;
+				synchronized (authenticationLock) {
+					held = new ArrayList<MessagePacket>();
+				}
+				authenticator.authenticateResponseAsync(m, authenticationExecutor).whenComplete(new BiConsumer<Boolean, Throwable>() {
+					@Override
+					public void accept(Boolean valid, Throwable error) {
+						synchronized (authenticationLock) {
+							if (error != null) logger.pushError("Unable to check authentication message from " + getInetAddress() + ": " + error);
+							verified(m, advertised, error == null && valid);
+							
+							List<MessagePacket> received = held;
+							held = null;
+							for (MessagePacket p : received) receive(p);
+						}
+					}
+				});
 			}
 		}
 	}
 	
 	
+	/**
+	 * Waits for the result of a credential check.
+	 * @param check
+	 * @return true if the credentials are valid
+	 */
+	private boolean await(CompletableFuture<Boolean> check) {
+		try {
+			return check.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.pushError("Unable to check authentication message from " + getInetAddress() + ": " + e.getCause());
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Completes the handshake once the credentials of the client have been checked.
+	 * Nothing is done if the connection was closed during the check.
+	 * @param m
+	 * @param advertised
+	 * @param valid
+	 */
+	private void verified(MessagePacket m, Capabilities advertised, boolean valid) {
+		if (state != ConnectionState.AUTHENTICATE) return;
+		
+		if (valid) establish(m, advertised, null);
+		else {
+			logger.pushError("Received invalid authentication message from <" + m.data[0] + ">");
+			
+			//Change state, unless the handshake timed out during the check
+			synchronized (this) {
+				if (state == ConnectionState.AUTHENTICATE) setState(ConnectionState.DISCONNECTING);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Assigns the client its ID, sends it the response and moves the connection to the {@code CONNECTED} state.
+	 * This is done under the same lock as {@code terminateConnection}, so a connection whose handshake 
+	 * timed out in the meantime is never registered; the session it was resuming is kept for another attempt.
+	 * @param m the authentication message
+	 * @param advertised the capabilities sent by the client
+	 * @param session the session the client is resuming, or null if it is new
+	 */
+	private synchronized void establish(MessagePacket m, Capabilities advertised, SessionTable.Session session) {
+		if (state != ConnectionState.AUTHENTICATE) {
+			if (session != null) sessions.restore(session);
+			return;
+		}
+		
+		if (session != null) {
+			clientName = session.getClientName();
+			serverAssignedID = session.getID();
+		}
+		else {
+			if (Server.DEV_DEBUG) logger.pushCon("Received valid authentication message from <" + m.data[0] + ">");
+			clientName = m.data[0];
+			
+			//Assign a new UUID to the client
+			serverAssignedID = UUID.randomUUID();
+		}
+		if (thread != null) thread.setName(clientIdentifier());
+		
+		// Send message
+		MessagePacket response = authenticator.generateResponse(serverAssignedID);
+		if (sessions != null) SessionToken.attach(response, sessionToken = sessions.issue(serverAssignedID));
+		if (session != null) logger.pushCon("Client reconnected! Resuming session with assigned ID " + serverAssignedID);
+		else logger.pushCon("Client connected! Sending response to client with assigned ID " + serverAssignedID);
+		sendToClient(response);
+		if (advertised != null && framed) negotiate(advertised);
+		if (session != null) {
+			// These were already let into the queue of the lost connection, so the outbound limit is not applied again
+			for (MessagePacket p : session.getPending()) enqueue(p);
+		}
+		
+		//Change state
+		setState(ConnectionState.CONNECTED);
+	}
+	
+	
+	/**
+	 * Switches to the first preferred codec that the client can decode.
+	 * The client can decode frames from either codec, so it does not matter 
+	 * whether the response to the authentication is encoded before or after the switch.
+	 * @param advertised the capabilities sent by the client
+	 */
+	private void negotiate(Capabilities advertised) {
+		capabilities = advertised;
+		
+		MessageCodec chosen = advertised.choose(preferredCodecs);
+		if (chosen != null && chosen.getID() != codec.getID()) {
+			if (Server.DEV_DEBUG) logger.pushCon("Switching to codec " + chosen.getID() + " for " + clientIdentifier());
+			codec = chosen instanceof StatefulMessageCodec ? ((StatefulMessageCodec) chosen).newInstance() : chosen;
+			if (out instanceof FramedPacketOutput) ((FramedPacketOutput) out).setCodec(codec);
+		}
+	}
+	
+	
+	/**
+	 * Forwards a packet addressed to another client straight to the outbound queue of that client.
+	 * The data of the packet is not decoded, and a binary frame which is forwarded unchanged 
+	 * is sent to the other client as the bytes that were received.
+	 * Packets for a client which is not connected are dropped, as are control packets
+	 * and batches containing them, so that a client cannot kick or disconnect another.
+	 * @param m
+	 * @return true if the packet was addressed to another client
+	 */
+	private boolean relay(MessagePacket m) {
+		if (relay == null || m == null || m.receiverID == null) return false;
+		if (m.receiverID.equals(SERVERID) || m.receiverID.equals(serverAssignedID)) return false;
+		
+		ClientConnection target = relay.get(m.receiverID);
+		if (target == null) {
+			if (Server.DEV_DEBUG) logger.pushInfo("Dropped message from " + clientIdentifier() + " for " + m.receiverID + ": client not connected.");
+		}
+		else if (!serverAssignedID.equals(m.senderID)) {
+			logger.pushError("Dropped message from " + clientIdentifier() + " with sender ID " + m.senderID + ".");
+		}
+		else if (m.type != null && m.type.isControl()) {
+			logger.pushError("Dropped " + m.type + " message from " + clientIdentifier() + " for " + m.receiverID + ": control messages are not relayed.");
+		}
+		else if (m.type == MessageType.BATCH) {
+			try {
+				if (MessageBatch.containsControl(m)) {
+					logger.pushError("Dropped batch from " + clientIdentifier() + " for " + m.receiverID + ": control messages are not relayed.");
+				}
+				else if (target.capabilities == null || !target.capabilities.supportsBatching()) {
+					for (MessagePacket p : MessageBatch.unpack(m)) target.sendToClient(p);
+				}
+				else target.sendToClient(m);
+			} catch (IllegalArgumentException e) {
+				logger.pushError("Received invalid batch from " + clientIdentifier() + ": " + e.getMessage());
+			}
+		}
+		else target.sendToClient(m);
+		return true;
+	}
+	
+	
+	/**
+	 * Decodes the data of a packet which was decoded lazily, 
+	 * so that handlers can read the {@code data} field directly.
+	 * @param m
+	 * @return the same packet
+	 */
+	private static MessagePacket decoded(MessagePacket m) {
+		if (m != null) m.getData();
+		return m;
+	}
+	
+	
 	/**
 	 * Process messages sent to the server from this client.
 	 * This method should be extended to implement custom message handling.
@@ -173,11 +597,13 @@ public class ClientConnection extends Thread {
 				if (authenticator.isRequestingDisconnect(m)) {
 					if (Server.DEV_DEBUG) logger.pushInfo("Disconnect request received.");
 					sendToClient(authenticator.generateDisconnectAckPacket(serverAssignedID));
-					state = ConnectionState.DISCONNECTING;
+					setState(ConnectionState.DISCONNECTING);
 				}
 				break;
 			case MESSAGE_CHAT:
 				printMessage(m); break;
+			case TYPED:
+				processTypedMessage(m); break;
 			default:
 				logger.pushError("Unhandled message.");
 				break;
@@ -186,13 +612,48 @@ public class ClientConnection extends Thread {
 	}
 	
 	
+	/**
+	 * Passes a typed message to its handler in the message registry.
+	 * @param m
+	 */
+	protected void processTypedMessage(MessagePacket m) {
+		try {
+			if (registry == null || !registry.dispatch(this, m)) logger.pushError("Unhandled typed message " + m.typeID + ".");
+		} catch (IOException e) {
+			logger.pushError("Received invalid typed message " + m.typeID + " from " + clientIdentifier() + ": " + e.getMessage());
+		}
+	}
+	
+	
+	/**
+	 * Terminates the connection if the client has not completed the authentication handshake.
+	 * This is called by the server's shared handshake timer when the deadline for the handshake passes,
+	 * so a client which never authenticates does not need a thread of its own to time it out.
+	 */
+	synchronized void handshakeExpired() {
+		ConnectionState state = this.state;
+		if (state == ConnectionState.NEW || state == ConnectionState.AUTHENTICATE) {
+			logger.pushCon("Client " + getInetAddress() + ":" + getPort() + " did not authenticate in time.");
+			terminateConnection();
+		}
+	}
+	
+	
 	/**
 	 * Start the process to disconnect from the server safely.
 	 * This method should be extended if a subclass requires to perform other tasks before disconnecting.
+	 * <p>
+	 * On an event loop or a dispatcher this never waits. If messages are still waiting to be written,
+	 * it returns and is called again by whatever writes them once the outgoing queue is empty.
 	 */
 	protected void processDisconnect() {
+		if (channel != null || dispatcher != null) {
+			if (pendingMessages.get() == 0) terminateConnection();
+			return;
+		}
+		
 		int count = 0;
-		while (!outgoingMessageQueue.isEmpty()) {
+		while (pendingMessages.get() > 0) {
 			// wait until messages are sent
 			try {
 				Thread.sleep(100);
@@ -210,10 +671,12 @@ public class ClientConnection extends Thread {
 	 * Terminates the connection from the client to the server.
 	 * Incoming and outgoing message handling threads are stopped and the socket connection is closed.
 	 */
-	public void terminateConnection() {
+	public synchronized void terminateConnection() {
 		if (state != ConnectionState.TERMINATED) {
-			state = ConnectionState.TERMINATED;
+			// Only a connection which was lost, rather than closed on purpose, can be resumed
+			boolean lost = state == ConnectionState.CONNECTED;
 			alive = false;
+			setState(ConnectionState.TERMINATED);
 			
 			try {
 				socket.close();
@@ -221,11 +684,27 @@ public class ClientConnection extends Thread {
 				e.printStackTrace();
 			}
 			
+			if (lost && sessions != null && sessionToken != null) suspend();
 			logger.pushCon("Connection with " + clientIdentifier() + " terminated.");
 		}
 	}
 	
 	
+	/**
+	 * Keeps the session of the client in the session table, 
+	 * along with the messages which have not yet been taken from the outgoing queue.
+	 */
+	private void suspend() {
+		List<MessagePacket> pending = new ArrayList<MessagePacket>();
+		MessagePacket p;
+		while ((p = outgoingMessageQueue.poll()) != null) pending.add(p);
+		sent(pending.size());
+		
+		sessions.suspend(sessionToken, clientName, pending);
+		if (Server.DEV_DEBUG) logger.pushInfo("Kept session of " + clientIdentifier() + " with " + pending.size() + " pending messages.");
+	}
+	
+	
 	
 	/**
 	 * A runnable class which constantly checks for incoming messages and appends
@@ -238,9 +717,8 @@ public class ClientConnection extends Thread {
 		public void run() {
 			while (alive) {
 				try {
-					Object object = (MessagePacket) in.readObject();
-					MessagePacket packet = (MessagePacket) object;
-					incomingMessageQueue.offer(packet);
+					MessagePacket packet = in.readPacket();
+					receive(packet);
 					logger.pushReceive("Received message from " + 
 							(packet.senderID != null ? packet.senderID.toString().substring(0, 5) : "<unknown>") + 
 							" of type " + packet.type);
@@ -265,6 +743,38 @@ public class ClientConnection extends Thread {
 	}
 	
 	
+	/**
+	 * Processes a received message on the dispatcher.
+	 */
+	private class Dispatch implements Runnable {
+		private final MessagePacket m;
+		
+		Dispatch(MessagePacket m) {
+			this.m = m;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				dispatch(m);
+			} catch (RuntimeException e) {
+				failed(e);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Disconnects the client on the dispatcher.
+	 */
+	private class Disconnect implements Runnable {
+		@Override
+		public void run() {
+			processDisconnect();
+		}
+	}
+	
+	
 	/**
 	 * A runnable class which checks constantly checks the outgoing queue
 	 * and sends any messages to the client as assigned by the server.
@@ -278,11 +788,26 @@ public class ClientConnection extends Thread {
 				try { 
 					MessagePacket p = outgoingMessageQueue.poll(TIMEOUT_LIMIT, TIMEOUT_UNIT);
 					if (p != null) {
-						out.writeObject(p);
-						logger.pushSend("Sent message to " + 
-								(p.receiverID != null ? p.receiverID.toString().substring(0, 5) : "<unknown>") +  
-								" @ " + socket.getInetAddress() + ":" + socket.getPort());
+						// Write everything that is queued, then flush once
+						long started = System.currentTimeMillis();
+						int count = 0;
+						while (p != null) {
+							out.writePacket(p);
+							count++;
+							logger.pushSend("Sent message to " + 
+									(p.receiverID != null ? p.receiverID.toString().substring(0, 5) : "<unknown>") +  
+									" @ " + socket.getInetAddress() + ":" + socket.getPort());
+							p = flushPolicy.next(outgoingMessageQueue, count, started);
+						}
+						out.flush();
+						sent(count);
+						
+						// A disconnect on the dispatcher leaves closing the connection to this thread
+						if (dispatcher != null && state == ConnectionState.DISCONNECTING && pendingMessages.get() == 0) {
+							dispatcher.execute(new Disconnect());
+						}
 					}
+					else out.idle();
 				} 
 				catch (EOFException e) {
 					if (Server.DEV_DEBUG) e.printStackTrace(logger.getStream());
@@ -321,7 +846,146 @@ public class ClientConnection extends Thread {
 	 * @param p
 	 */
 	public void sendToClient(MessagePacket p) {
+		if (outboundLimit > 0 && pendingMessages.get() >= outboundLimit && (p.type == null || !p.type.isControl())) {
+			if (!overflow()) return;
+		}
+		
+		enqueue(p);
+	}
+	
+	
+	/**
+	 * Puts a message in the outgoing queue without checking the outbound limit.
+	 * @param p
+	 */
+	private void enqueue(MessagePacket p) {
+		int depth = pendingMessages.incrementAndGet();
+		if (depth > outboundPeak) outboundPeak = depth;
 		outgoingMessageQueue.offer(p);
+		if (channel != null) channel.outboundReady();
+	}
+	
+	
+	/**
+	 * Applies the overflow policy when the outgoing queue is at its limit.
+	 * @return true if the message should still be queued
+	 */
+	private boolean overflow() {
+		switch (overflowPolicy) {
+		case BLOCK:
+			// A thread serving many connections must not wait for one slow client, so the oldest chat is dropped instead
+			if (SHARED_THREAD.get() != null) return dropOldest();
+			
+			synchronized (outboundLock) {
+				blockedProducers++;
+				try {
+					while (alive && pendingMessages.get() >= outboundLimit) {
+						outboundLock.wait(TimeUnit.MILLISECONDS.convert(TIMEOUT_LIMIT, TIMEOUT_UNIT));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					droppedMessages.incrementAndGet();
+					return false;
+				} finally {
+					blockedProducers--;
+				}
+			}
+			return true;
+		case DROP_OLDEST_CHAT:
+			return dropOldest();
+		case KICK:
+			droppedMessages.incrementAndGet();
+			if (state == ConnectionState.AUTHENTICATE || state == ConnectionState.CONNECTED) {
+				logger.pushInfo("Client " + clientIdentifier() + " has " + pendingMessages.get() + " messages waiting to be sent.");
+				kick("Too many messages waiting to be sent.");
+			}
+			return false;
+		default:
+			return true;
+		}
+	}
+	
+	
+	/**
+	 * Discards the oldest queued message which is not a control message, to make room for a new one.
+	 * @return true, as the new message should still be queued
+	 */
+	private boolean dropOldest() {
+		if (outgoingMessageQueue.pollBulk() != null) {
+			pendingMessages.decrementAndGet();
+			droppedMessages.incrementAndGet();
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Marks the current thread as one which serves many connections, such as an event loop.
+	 * Sending to a full connection with the {@code BLOCK} policy on such a thread drops the oldest chat message instead of waiting.
+	 */
+	static void markSharedThread() {
+		SHARED_THREAD.set(Boolean.TRUE);
+	}
+	
+	
+	/**
+	 * Wraps a factory so that every thread it creates is marked as serving many connections.
+	 * @param factory
+	 * @return
+	 */
+	static ThreadFactory sharedThreads(final ThreadFactory factory) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return factory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						markSharedThread();
+						r.run();
+					}
+				});
+			}
+		};
+	}
+	
+	
+	/**
+	 * Records that messages have been taken from the outgoing queue and written,
+	 * waking any thread waiting for room in the queue.
+	 * @param count
+	 */
+	void sent(int count) {
+		int depth = pendingMessages.addAndGet(-count);
+		if (blockedProducers > 0 && depth < outboundLimit) {
+			synchronized (outboundLock) {
+				outboundLock.notifyAll();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Sends a typed message to the client.
+	 * @param message a message of a class registered in the message registry
+	 * @throws IOException if the message could not be encoded
+	 */
+	public void sendTyped(Object message) throws IOException {
+		sendToClient(registry.pack(SERVERID, serverAssignedID, message));
+	}
+	
+	
+	/**
+	 * Sends several messages to the client in a single batch packet.
+	 * The client unpacks the batch and processes the messages in order.
+	 * Clients which did not advertise batching during authentication are sent the messages one at a time.
+	 * @param packets messages which all have the same sender and receiver
+	 */
+	public void sendBatch(List<MessagePacket> packets) {
+		if (capabilities == null || !capabilities.supportsBatching()) {
+			for (MessagePacket p : packets) sendToClient(p);
+		}
+		else if (packets.size() == 1) sendToClient(packets.get(0));
+		else if (!packets.isEmpty()) sendToClient(MessageBatch.pack(packets));
 	}
 	
 	
@@ -331,7 +995,7 @@ public class ClientConnection extends Thread {
 	 */
 	public void kick(String reason) {
 		sendToClient(authenticator.generateKickMessage(serverAssignedID, reason));		
-		state = ConnectionState.DISCONNECTING;
+		setState(ConnectionState.DISCONNECTING);
 	}
 	
 
@@ -353,6 +1017,16 @@ public class ClientConnection extends Thread {
 	}
 	
 	
+	/**
+	 * Gets the name the client authenticated with.
+	 * This is null if the client has not been authenticated.
+	 * @return
+	 */
+	public String getClientName() {
+		return clientName;
+	}
+	
+	
 	/**
 	 * Gets the ID of the client as assigned by the server.
 	 * @return
@@ -371,6 +1045,223 @@ public class ClientConnection extends Thread {
 	}
 
 	
+	/**
+	 * Get the codec used to encode frames sent to a client using the framed format.
+	 * @return
+	 */
+	public MessageCodec getCodec() {
+		return codec;
+	}
+	
+	
+	/**
+	 * Set the codec used to encode frames sent to a client using the framed format.
+	 * Frames received from the client are decoded with whichever codec the client chose.
+	 * A stateful codec such as {@code DictionaryMessageCodec} is copied so that it can be shared with other connections.
+	 * This must be set before the connection is started.
+	 * @param codec
+	 */
+	public void setCodec(MessageCodec codec) {
+		this.codec = codec instanceof StatefulMessageCodec ? ((StatefulMessageCodec) codec).newInstance() : codec;
+	}
+	
+	
+	/**
+	 * Set the policy for resetting the stream sent to a client using Java serialization.
+	 * This must be set before the connection is started.
+	 * @param resetPolicy
+	 */
+	public void setResetPolicy(ResetPolicy resetPolicy) {
+		this.resetPolicy = resetPolicy;
+	}
+	
+	
+	/**
+	 * Set the codecs to switch to once the client is authenticated, in order of preference.
+	 * The first codec that the client advertised it can decode is used. 
+	 * Clients which did not advertise any capabilities keep receiving frames from the codec set by {@code setCodec}.
+	 * This must be set before the connection is started.
+	 * @param codecs
+	 */
+	public void setPreferredCodecs(List<MessageCodec> codecs) {
+		this.preferredCodecs = codecs;
+	}
+	
+	
+	/**
+	 * Get the capabilities the client advertised during authentication.
+	 * @return the capabilities, or null if the client did not advertise any
+	 */
+	public Capabilities getCapabilities() {
+		return capabilities;
+	}
+	
+	
+	/**
+	 * Set how many queued messages are written to the client before the output is flushed.
+	 * This must be set before the connection is started.
+	 * @param flushPolicy
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+	}
+	
+	
+	/**
+	 * Set the queue used to pass received packets to the connection thread.
+	 * Only the incoming thread offers to this queue and only the connection thread
+	 * takes from it, so it may be a {@link RingMessageQueue}.
+	 * This must be set before the connection is started.
+	 * @param incomingMessageQueue
+	 */
+	public void setIncomingQueue(MessageQueue incomingMessageQueue) {
+		this.incomingMessageQueue = incomingMessageQueue;
+	}
+	
+	
+	/**
+	 * Set the limit on the number of messages waiting to be written to the client,
+	 * and what happens when a message is sent while the limit is reached.
+	 * @param limit the limit, or 0 for no limit
+	 * @param policy
+	 */
+	public void setOutboundLimit(int limit, OverflowPolicy policy) {
+		this.outboundLimit = limit;
+		this.overflowPolicy = policy;
+	}
+	
+	
+	/**
+	 * Gets the number of messages waiting to be written to the client.
+	 * @return
+	 */
+	public int getOutboundDepth() {
+		return pendingMessages.get();
+	}
+	
+	
+	/**
+	 * Gets the largest number of messages that have been waiting to be written to the client at once.
+	 * @return
+	 */
+	public int getOutboundPeak() {
+		return outboundPeak;
+	}
+	
+	
+	/**
+	 * Gets the number of messages to the client discarded because of the overflow policy.
+	 * @return
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+	
+	
+	/**
+	 * Set the factory used to create the threads of the connection.
+	 * This must be set before the connection is started.
+	 * @param threadFactory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+	
+	
+	/**
+	 * Changes the state of the connection and publishes the change to the connection's listener.
+	 * @param state
+	 */
+	protected void setState(ConnectionState state) {
+		ConnectionState previous = this.state;
+		this.state = state;
+		
+		if (state == ConnectionState.DISCONNECTING && previous != state) {
+			// Without a tick loop, the disconnect must be started here
+			if (channel != null) channel.outboundReady();
+			else if (dispatcher != null && alive) dispatcher.execute(new Disconnect());
+		}
+		
+		if (listener != null && previous != state) {
+			switch (state) {
+			case AUTHENTICATE:
+				listener.connected(this); break;
+			case CONNECTED:
+				listener.authenticated(this); break;
+			case TERMINATED:
+				listener.terminated(this); break;
+			default:
+				break;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Set the executor used to process received messages instead of the connection's own thread.
+	 * The executor must run tasks one at a time in the order they were submitted.
+	 * This must be set before the connection is started.
+	 * @param dispatcher
+	 */
+	public void setDispatcher(Executor dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+	
+	
+	/**
+	 * Set the executor used to check the credentials of the client, 
+	 * so that slow checks do not hold up the event loop or dispatcher of the connection.
+	 * If this is not set, the credentials are checked on the thread which received the authentication message.
+	 * This must be set before the connection is started.
+	 * @param executor
+	 */
+	public void setAuthenticationExecutor(Executor executor) {
+		this.authenticationExecutor = executor;
+	}
+	
+	
+	/**
+	 * Set the registry used to find the clients that packets from this client are relayed to.
+	 * If this is not set, packets addressed to other clients are handled by {@code processMessage}.
+	 * This must be set before the connection is started.
+	 * @param clients
+	 */
+	public void setRelay(ClientRegistry clients) {
+		this.relay = clients;
+	}
+	
+	
+	/**
+	 * Set the table which keeps the session of the client if its connection is lost.
+	 * If this is not set, a client which reconnects is authenticated again and assigned a new ID.
+	 * This must be set before the connection is started.
+	 * @param sessions
+	 */
+	public void setSessionTable(SessionTable sessions) {
+		this.sessions = sessions;
+	}
+	
+	
+	/**
+	 * Set the registry used to handle typed messages from the client.
+	 * This must be set before the connection is started.
+	 * @param registry
+	 */
+	public void setMessageRegistry(MessageRegistry<ClientConnection> registry) {
+		this.registry = registry;
+	}
+	
+	
+	/**
+	 * Set the listener which receives the lifecycle events of the connection.
+	 * This must be set before the connection is started.
+	 * @param listener
+	 */
+	public void setConnectionListener(ConnectionListener listener) {
+		this.listener = listener;
+	}
+	
+	
 	/**
 	 * Gets the current state of the connection
 	 * @return
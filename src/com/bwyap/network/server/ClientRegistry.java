@@ -0,0 +1,155 @@
+package com.bwyap.network.server;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.bwyap.utility.PrefixIndex;
+
+/**
+ * A concurrent registry of the clients connected to a server.
+ * <p>
+ * Every accepted connection is held until it is removed, and authenticated connections 
+ * are also indexed by their server assigned ID. Adding, removing and looking up a client 
+ * are constant time and do not lock the whole registry. Iteration never throws a 
+ * {@code ConcurrentModificationException}; it reflects the clients at some point during the 
+ * iteration, so broadcasts and commands can iterate without holding a lock.
+ * <p>
+ * Authenticated clients are also indexed by their identifier and their name so that 
+ * clients can be found by a prefix in time proportional to the length of the prefix.
+ * @author bwyap
+ *
+ */
+public class ClientRegistry implements Iterable<ClientConnection> {
+
+	private final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+	private final ConcurrentHashMap<UUID, ClientConnection> byID = new ConcurrentHashMap<UUID, ClientConnection>();
+	private final AtomicInteger count = new AtomicInteger(0);
+	private final PrefixIndex<ClientConnection> identifiers = new PrefixIndex<ClientConnection>();
+	private final PrefixIndex<ClientConnection> names = new PrefixIndex<ClientConnection>();
+	
+	
+	/**
+	 * Adds a client to the registry if there are fewer than {@code max} clients in it.
+	 * The check and the add are atomic, so concurrent adds cannot exceed the limit.
+	 * @param client
+	 * @param max
+	 * @return true if the client was added
+	 */
+	public boolean add(ClientConnection client, int max) {
+		int current;
+		do {
+			current = count.get();
+			if (current >= max) return false;
+		} while (!count.compareAndSet(current, current + 1));
+		
+		connections.add(client);
+		return true;
+	}
+	
+	
+	/**
+	 * Indexes a client by its server assigned ID once it has been authenticated.
+	 * @param client
+	 */
+	public void authenticated(ClientConnection client) {
+		if (client.getID() != null && connections.contains(client)) {
+			if (byID.put(client.getID(), client) == null) {
+				identifiers.add(client.clientIdentifier(), client);
+				names.add(client.getClientName(), client);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Removes a client from the registry.
+	 * @param client
+	 * @return true if the client was in the registry
+	 */
+	public boolean remove(ClientConnection client) {
+		if (!connections.remove(client)) return false;
+		
+		if (client.getID() != null && byID.remove(client.getID(), client)) {
+			identifiers.remove(client.clientIdentifier(), client);
+			names.remove(client.getClientName(), client);
+		}
+		count.decrementAndGet();
+		return true;
+	}
+	
+	
+	/**
+	 * Gets an authenticated client by its server assigned ID.
+	 * @param id
+	 * @return the client, or null if there is no authenticated client with the ID
+	 */
+	public ClientConnection get(UUID id) {
+		return id != null ? byID.get(id) : null;
+	}
+	
+	
+	/**
+	 * Gets an authenticated client by its identifier.
+	 * If no client has the identifier, a client with the name is returned if there is only one.
+	 * @param identifier
+	 * @return the client, or null if there is no match
+	 */
+	public ClientConnection find(String identifier) {
+		List<ClientConnection> matches = identifiers.get(identifier);
+		if (matches.isEmpty()) matches = names.get(identifier);
+		return matches.size() == 1 ? matches.get(0) : null;
+	}
+	
+	
+	/**
+	 * Counts the authenticated clients with an identifier starting with the specified prefix.
+	 * If there are none, the clients with a name starting with the prefix are counted instead.
+	 * @param prefix
+	 * @return
+	 */
+	public int countPrefix(String prefix) {
+		int count = identifiers.count(prefix);
+		return count > 0 ? count : names.count(prefix);
+	}
+	
+	
+	/**
+	 * Gets the only authenticated client with an identifier, or otherwise a name, starting with the specified prefix.
+	 * @param prefix
+	 * @return the client, or null if there is no single match
+	 */
+	public ClientConnection findPrefix(String prefix) {
+		ClientConnection client = identifiers.unique(prefix);
+		if (client == null && identifiers.count(prefix) == 0) client = names.unique(prefix);
+		return client;
+	}
+	
+	
+	/**
+	 * Gets the number of clients in the registry.
+	 * @return
+	 */
+	public int size() {
+		return count.get();
+	}
+	
+	
+	/**
+	 * Gets the number of clients that have been authenticated.
+	 * @return
+	 */
+	public int authenticatedSize() {
+		return byID.size();
+	}
+	
+	
+	@Override
+	public Iterator<ClientConnection> iterator() {
+		return connections.iterator();
+	}
+	
+}
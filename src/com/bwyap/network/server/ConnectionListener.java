@@ -0,0 +1,33 @@
+package com.bwyap.network.server;
+
+/**
+ * Receives the lifecycle events of a ClientConnection.
+ * Events are published on whichever thread changed the state of the connection, 
+ * so implementations should return quickly.
+ * @author bwyap
+ *
+ */
+public interface ConnectionListener {
+
+	
+	/**
+	 * Called when an accepted connection starts its authentication handshake.
+	 * @param client
+	 */
+	public void connected(ClientConnection client);
+	
+	
+	/**
+	 * Called when a connection has been authenticated and is in the {@code CONNECTED} state.
+	 * @param client
+	 */
+	public void authenticated(ClientConnection client);
+	
+	
+	/**
+	 * Called when a connection has been terminated.
+	 * @param client
+	 */
+	public void terminated(ClientConnection client);
+	
+}
@@ -0,0 +1,245 @@
+package com.bwyap.network.server;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.bwyap.network.ConnectionState;
+import com.bwyap.network.codec.Frame;
+import com.bwyap.network.codec.FrameDecoder;
+import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.server.SelectorEngine.EventLoop;
+
+/**
+ * The non-blocking end of a ClientConnection in a server running in selector mode.
+ * All reads and writes happen on the event loop that owns the channel.
+ * Incoming frames are decoded and handed to the connection as they arrive, 
+ * and messages queued with {@code sendToClient} are written when the loop is woken up.
+ * @author bwyap
+ *
+ */
+class SelectorChannel {
+	
+	private static final int BUFFER_SIZE = 8192;
+
+	private final SocketChannel socketChannel;
+	private final ClientConnection connection;
+	private final ServerLogger logger;
+	private final EventLoop loop;
+	
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<ByteBuffer>();
+	private ByteBuffer[] gather = new ByteBuffer[0];
+	private final FrameDecoder decoder = new FrameDecoder(true);
+	private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private SelectionKey key;
+	private boolean framed = false;
+	
+	
+	SelectorChannel(SocketChannel socketChannel, ClientConnection connection, ServerLogger logger, EventLoop loop) {
+		this.socketChannel = socketChannel;
+		this.connection = connection;
+		this.logger = logger;
+		this.loop = loop;
+		connection.attach(this);
+	}
+	
+	
+	/**
+	 * Register the channel with the selector of its event loop.
+	 * Must be called on the event loop thread.
+	 * @param selector
+	 */
+	void register(Selector selector) {
+		try {
+			key = socketChannel.register(selector, SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			e.printStackTrace();
+			connection.terminateConnection();
+		}
+	}
+	
+	
+	/**
+	 * Signal that the connection has messages waiting to be written.
+	 * This may be called from any thread.
+	 */
+	void outboundReady() {
+		if (scheduled.compareAndSet(false, true)) {
+			loop.schedule(this);
+		}
+	}
+	
+	
+	/**
+	 * Read whatever is available from the socket and dispatch any complete frames.
+	 * Must be called on the event loop thread.
+	 */
+	void read() {
+		try {
+			int count = socketChannel.read(readBuffer);
+			if (count < 0) {
+				lost();
+				return;
+			}
+			
+			readBuffer.flip();
+			if (!framed) readPreamble();
+			if (framed) readFrames();
+			readBuffer.compact();
+		}
+		catch (IOException e) {
+			if (Server.DEV_DEBUG) e.printStackTrace(logger.getStream());
+			lost();
+			return;
+		}
+		
+		flush();
+	}
+	
+	
+	/**
+	 * Check the preamble sent by the client and reply with the server's preamble.
+	 * @throws IOException if the client is not using the framed format
+	 */
+	private void readPreamble() throws IOException {
+		if (readBuffer.remaining() < Frame.PREAMBLE_LENGTH) return;
+		
+		int magic = readBuffer.getInt();
+		if (magic != Frame.MAGIC) {
+			if (magic == Frame.STREAM_MAGIC) logger.pushError("Client " + connection.getInetAddress() + " is not using the framed format.");
+			throw new StreamCorruptedException(String.format("Invalid frame preamble: %08X", magic));
+		}
+		
+		framed = true;
+		ByteBuffer preamble = ByteBuffer.allocate(Frame.PREAMBLE_LENGTH);
+		preamble.putInt(Frame.MAGIC).flip();
+		writeQueue.offer(preamble);
+		
+		if (connection.getConnectionState() == ConnectionState.AUTHENTICATE) {
+			connection.requestAuthentication();
+		}
+	}
+	
+	
+	/**
+	 * Decode and dispatch every complete frame in the read buffer.
+	 * The read buffer is enlarged if a frame does not fit in it.
+	 * @throws IOException if a frame is invalid
+	 */
+	private void readFrames() throws IOException {
+		while (readBuffer.remaining() >= Frame.HEADER_LENGTH) {
+			int start = readBuffer.position();
+			int length = readBuffer.getInt(start);
+			Frame.checkLength(length);
+			
+			if (readBuffer.remaining() < length + 4) {
+				if (length + 4 > readBuffer.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocate(length + 4);
+					larger.put(readBuffer);
+					larger.flip();
+					readBuffer = larger;
+				}
+				return;
+			}
+			
+			byte id = readBuffer.get(start + 4);
+			// The read buffer is reused, so packets which keep their bytes get a copy of the whole frame
+			MessagePacket packet = decoder.isLazy() ? 
+					decoder.decode(id, Arrays.copyOfRange(readBuffer.array(), start, start + 4 + length), Frame.HEADER_LENGTH, length - 1) : 
+					decoder.decode(id, readBuffer.array(), start + Frame.HEADER_LENGTH, length - 1);
+			readBuffer.position(start + 4 + length);
+			
+			logger.pushReceive("Received message from " + 
+					(packet.senderID != null ? packet.senderID.toString().substring(0, 5) : "<unknown>") + 
+					" of type " + packet.type);
+			connection.receive(packet);
+		}
+	}
+	
+	
+	/**
+	 * Write the messages waiting in the connection's outgoing queue.
+	 * Up to a batch of messages, as set by the connection's flush policy, is taken from the queue 
+	 * and written with a single gathering write. The event loop never lingers for more messages.
+	 * Messages are only taken from the queue while the socket accepts them, so messages
+	 * to a client which is not reading stay in the queue where its overflow policy applies.
+	 * The remainder is written when the channel becomes writable.
+	 * Once everything has been written to a disconnecting client, the connection is closed.
+	 * Must be called on the event loop thread.
+	 */
+	void flush() {
+		scheduled.set(false);
+		if (!framed || key == null || !key.isValid()) return;
+		
+		try {
+			while (true) {
+				if (writeQueue.isEmpty()) {
+					int batch = connection.flushPolicy.getMaxBatch();
+					MessagePacket p;
+					while (writeQueue.size() < batch && (p = connection.outgoingMessageQueue.poll()) != null) {
+						writeQueue.offer(Frame.encode(connection.codec, p));
+						logger.pushSend("Sent message to " + 
+								(p.receiverID != null ? p.receiverID.toString().substring(0, 5) : "<unknown>") +  
+								" @ " + connection.getInetAddress() + ":" + connection.getPort());
+					}
+					if (writeQueue.isEmpty()) break;
+					connection.sent(writeQueue.size());
+				}
+				
+				int count = writeQueue.size();
+				if (gather.length < count) gather = new ByteBuffer[count];
+				writeQueue.toArray(gather);
+				socketChannel.write(gather, 0, count);
+				
+				while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+					writeQueue.poll();
+				}
+				if (!writeQueue.isEmpty()) break;
+			}
+		}
+		catch (IOException e) {
+			if (Server.DEV_DEBUG) e.printStackTrace(logger.getStream());
+			lost();
+			return;
+		}
+		
+		if (writeQueue.isEmpty()) {
+			key.interestOps(SelectionKey.OP_READ);
+			if (connection.getConnectionState() == ConnectionState.DISCONNECTING && connection.outgoingMessageQueue.isEmpty()) {
+				connection.processDisconnect();
+			}
+		}
+		else key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+	
+	
+	/**
+	 * Terminates the connection after handling its packets has failed unexpectedly.
+	 * Must be called on the event loop thread.
+	 * @param e
+	 */
+	void failed(RuntimeException e) {
+		if (key != null) key.cancel();
+		connection.failed(e);
+	}
+	
+	
+	/**
+	 * Terminates the connection after the socket has failed.
+	 */
+	private void lost() {
+		ConnectionState state = connection.getConnectionState();
+		if (state != ConnectionState.DISCONNECTING && state != ConnectionState.TERMINATED) {
+			logger.pushInfo("Connection with client " + connection.clientIdentifier() + " lost. ");
+		}
+		connection.terminateConnection();
+	}
+	
+}
@@ -0,0 +1,223 @@
+package com.bwyap.network.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.bwyap.utility.ThreadFactories;
+
+/**
+ * Accepts connections for a server running in selector mode and 
+ * spreads them across a fixed number of event loops.
+ * Each event loop owns a {@code Selector} and performs all non-blocking reads, 
+ * writes and framing for the channels registered to it.
+ * @author bwyap
+ *
+ */
+class SelectorEngine implements Runnable {
+
+	private final Server server;
+	private final EventLoop[] loops;
+	private int next = 0;
+	
+	private ServerSocketChannel serverChannel;
+	private Selector acceptSelector;
+	
+	
+	SelectorEngine(Server server, int threads) {
+		this.server = server;
+		this.loops = new EventLoop[threads];
+	}
+	
+	
+	/**
+	 * Binds a non-blocking server channel to the specified port.
+	 * @param port
+	 * @return the socket of the server channel
+	 * @throws IOException
+	 */
+	ServerSocket open(int port) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		acceptSelector = Selector.open();
+		serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		return serverChannel.socket();
+	}
+	
+	
+	/**
+	 * Start the event loop threads.
+	 */
+	void start() {
+		for (int i = 0; i < loops.length; i++) {
+			try {
+				loops[i] = new EventLoop();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			// Event loops are always platform threads as they spend their time blocked in select
+			ThreadFactories.start(ThreadFactories.platform(), loops[i], "selector-" + i);
+		}
+	}
+	
+	
+	/**
+	 * Accepts new connections while the server is listening.
+	 */
+	@Override
+	public void run() {
+		while (server.listening) {
+			try {
+				if (Server.DEV_DEBUG) server.logger.pushInfo("Listening for clients...");
+				
+				acceptSelector.select(5000);
+				acceptSelector.selectedKeys().clear();
+				
+				SocketChannel socketChannel;
+				while ((socketChannel = serverChannel.accept()) != null) {
+					accept(socketChannel);
+				}
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		//Listening thread exiting
+		for (EventLoop loop : loops) {
+			if (loop != null) loop.stop();
+		}
+		
+		try {
+			acceptSelector.close();
+			serverChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Create a connection for an accepted channel and hand it to the next event loop.
+	 * @param socketChannel
+	 * @throws IOException
+	 */
+	private void accept(SocketChannel socketChannel) throws IOException {
+		socketChannel.configureBlocking(false);
+		socketChannel.socket().setTcpNoDelay(true);
+		
+		ClientConnection client = server.createClientConnection(server.SERVERID, socketChannel.socket(), 
+				server.logger, server.authenticator, server.interpreter);
+		if (!server.admit(client, socketChannel.socket())) return;
+		
+		EventLoop loop = loops[next++ % loops.length];
+		loop.register(new SelectorChannel(socketChannel, client, server.logger, loop));
+	}
+	
+	
+	/**
+	 * A thread which waits on its selector and services the channels registered to it.
+	 * Other threads hand work to the loop through its queues and wake up the selector.
+	 * @author bwyap
+	 *
+	 */
+	class EventLoop implements Runnable {
+		
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<SelectorChannel> registrations = new ConcurrentLinkedQueue<SelectorChannel>();
+		private final ConcurrentLinkedQueue<SelectorChannel> ready = new ConcurrentLinkedQueue<SelectorChannel>();
+		private volatile boolean running = true;
+		
+		
+		EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+		
+		
+		/**
+		 * Register a new channel with this loop.
+		 * @param channel
+		 */
+		void register(SelectorChannel channel) {
+			registrations.offer(channel);
+			selector.wakeup();
+		}
+		
+		
+		/**
+		 * Schedule a channel to have its outgoing messages written.
+		 * @param channel
+		 */
+		void schedule(SelectorChannel channel) {
+			ready.offer(channel);
+			selector.wakeup();
+		}
+		
+		
+		/**
+		 * Stop the loop and close its selector.
+		 */
+		void stop() {
+			running = false;
+			selector.wakeup();
+		}
+		
+		
+		@Override
+		public void run() {
+			ClientConnection.markSharedThread();
+			while (running) {
+				try {
+					selector.select();
+				} catch (IOException e) {
+					e.printStackTrace();
+					break;
+				}
+				
+				SelectorChannel channel;
+				while ((channel = registrations.poll()) != null) {
+					channel.register(selector);
+				}
+				
+				while ((channel = ready.poll()) != null) {
+					try {
+						channel.flush();
+					} catch (RuntimeException e) {
+						channel.failed(e);
+					}
+				}
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					channel = (SelectorChannel) key.attachment();
+					
+					// A packet which breaks its handler must only take down its own connection, not the loop
+					try {
+						if (key.isValid() && key.isReadable()) channel.read();
+						if (key.isValid() && key.isWritable()) channel.flush();
+					} catch (RuntimeException e) {
+						channel.failed(e);
+					}
+				}
+			}
+			
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (Server.DEV_DEBUG) server.logger.pushInfo("s selector finished.");
+		}
+	}
+	
+}
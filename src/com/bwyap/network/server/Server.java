@@ -1,18 +1,41 @@
 package com.bwyap.network.server;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 import com.bwyap.network.ConnectionState;
+import com.bwyap.network.OverflowPolicy;
 import com.bwyap.network.authenticator.ServerAuthenticator;
+import com.bwyap.network.codec.BinaryMessageCodec;
+import com.bwyap.network.codec.FlushPolicy;
+import com.bwyap.network.codec.MessageCodec;
+import com.bwyap.network.codec.ResetPolicy;
+import com.bwyap.network.codec.SerializedMessageCodec;
+import com.bwyap.network.codec.SharedPacket;
 import com.bwyap.network.interpreter.ConsoleServerInterpreter;
 import com.bwyap.network.interpreter.ServerInterpreter;
+import com.bwyap.network.message.MessagePacket;
+import com.bwyap.network.message.MessageRegistry;
+import com.bwyap.network.message.RingMessageQueue;
+import com.bwyap.network.message.WaitStrategy;
+import com.bwyap.utility.SerialExecutor;
+import com.bwyap.utility.ThreadFactories;
 import com.bwyap.utility.interpreter.InterpreterInterface;
 
 /**
@@ -20,11 +43,33 @@ import com.bwyap.utility.interpreter.InterpreterInterface;
  * If no port is specified, the default port (8080) is used.
  * When the server is run, 
  * it will create a {@code ServerSocket} that listens to the specified port for incoming connections on a new thread.
- * Every new connection, once authenticated, will be added to a list of clients as a {@code ClientConnection} object.
+ * Every new connection will be added to a registry of clients as a {@code ClientConnection} object, 
+ * and once authenticated it can be looked up by its server assigned ID.
  * Each connection starts a new thread to listen to any incoming messages and TODO to send messages.
  * <p>
- * A separate thread is also started to poll all connected clients.
+ * Changes in the state of each connection are published to the server, which removes terminated clients
+ * and calls {@code clientConnected}, {@code clientAuthenticated} and {@code clientTerminated}.
+ * A separate thread is also started to poll all connected clients every maintenance interval.
  * The polling method for clients should be defined in a concrete implementation.
+ * <p>
+ * If a session timeout is set, clients whose connection is lost can reconnect within it to resume their session
+ * (see {@code SessionTable}), keeping their ID and the messages that were waiting to be sent to them.
+ * <p>
+ * Alternatively, the server can be run in selector mode using {@code setSelectorThreads}.
+ * Connections are then served by a small fixed number of event loop threads using non-blocking channels
+ * instead of three threads per connection. Clients must use the framed wire format to connect in this mode.
+ * <p>
+ * If {@code setDispatchThreads} is used, messages from every client are processed on a shared pool of threads.
+ * Messages from the same client are still processed one at a time in the order they were received.
+ * Likewise, {@code setAuthenticationThreads} checks the credentials of clients on a pool of their own.
+ * The server's authenticator is shared by all of its connections and its ID is set once when the server is created.
+ * <p>
+ * If a handshake timeout is set, clients must complete the authentication handshake within it or they are disconnected.
+ * Deadlines are kept by a single timer thread for the whole server. The number of handshakes in progress
+ * from the same address can also be limited, so that a few silent sockets cannot fill the server.
+ * <p>
+ * The listen, poll and interpreter threads and the threads of each connection are created by its {@code ThreadFactory}.
+ * Passing {@code ThreadFactories.virtual()} runs them on virtual threads.
  * 
  * @author bwyap
  *
@@ -41,18 +86,43 @@ public abstract class Server implements Runnable {
 	protected final UUID SERVERID;
 	
 	protected int port;
+	protected int selectorThreads = 0;
+	protected int dispatchThreads = 0;
+	protected int authenticationThreads = 0;
+	protected long maintenanceInterval = 1000;
+	protected long handshakeTimeout = 0;
+	protected int maxPendingHandshakes = 0;
+	protected int ringCapacity = 0;
+	protected WaitStrategy waitStrategy = WaitStrategy.PARK;
+	protected int outboundLimit = 0;
+	protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 	
 	protected ServerSocket serverSocket;
 	protected ServerAuthenticator authenticator;
 	protected ServerLogger logger;
-	protected List<ClientConnection> clients = 
-			Collections.synchronizedList(new ArrayList<ClientConnection>());
+	protected ClientRegistry clients = new ClientRegistry();
 		
 	protected InterpreterInterface interpreter;
+	protected ThreadFactory threadFactory = ThreadFactories.platform();
+	protected ResetPolicy resetPolicy = ResetPolicy.DEFAULT;
+	protected FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+	protected MessageRegistry<ClientConnection> registry;
+	protected boolean relay = false;
+	protected SessionTable sessions;
+	protected List<MessageCodec> preferredCodecs = Arrays.<MessageCodec>asList(new BinaryMessageCodec(), new SerializedMessageCodec());
+	protected final ConnectionListener lifecycle = new Lifecycle();
+	
+	// Clients which have not finished the authentication handshake, and the number from each address
+	protected final ConcurrentHashMap<ClientConnection, Handshake> handshakes = new ConcurrentHashMap<ClientConnection, Handshake>();
+	protected final ConcurrentHashMap<InetAddress, Integer> pendingHandshakes = new ConcurrentHashMap<InetAddress, Integer>();
 	
 	protected volatile boolean listening = false;
 	protected volatile boolean polling = false;
 	
+	protected SelectorEngine engine;
+	protected ExecutorService dispatchPool;
+	protected ExecutorService authenticationPool;
+	protected ScheduledThreadPoolExecutor handshakeTimer;
 	protected Thread listenThread;
 	protected Thread pollThread;
 	protected Thread interpreterThread;
@@ -74,6 +144,17 @@ public abstract class Server implements Runnable {
 	}
 	
 	
+	/**
+	 * Create a server on the specified port which creates its threads using the given factory.
+	 * @param port
+	 * @param threadFactory
+	 */
+	public Server(String name, int port, final int maxConnections, ServerAuthenticator authenticator, ThreadFactory threadFactory) {
+		this(name, port, maxConnections, authenticator);
+		this.threadFactory = threadFactory;
+	}
+	
+	
 	/**
 	 * Create a server on the specified port.
 	 * @param port
@@ -83,6 +164,7 @@ public abstract class Server implements Runnable {
 		this.SERVERID = UUID.randomUUID();
 		this.port = port;
 		this.authenticator = authenticator;
+		this.authenticator.setUUID(SERVERID);
 		this.MAX_CLIENTS = maxConnections;
 		this.logger =  new ServerLogger(name, System.out);
 		logger.pushInfo("Server [" + name + "] created on port " + this.port + ".");
@@ -101,20 +183,36 @@ public abstract class Server implements Runnable {
 		}
 		else if (Server.DEV_DEBUG) logger.pushInfo("Server bound to port.");
 		
+		if (dispatchThreads > 0) {
+			dispatchPool = Executors.newFixedThreadPool(dispatchThreads, ClientConnection.sharedThreads(ThreadFactories.named(threadFactory, "dispatch")));
+		}
+		
+		if (handshakeTimeout > 0) {
+			handshakeTimer = new ScheduledThreadPoolExecutor(1, ThreadFactories.named(threadFactory, "handshake"));
+			handshakeTimer.setRemoveOnCancelPolicy(true);
+		}
+		
+		if (authenticationThreads > 0) {
+			// There can be no more checks waiting than there are clients; any more are rejected
+			authenticationPool = new ThreadPoolExecutor(authenticationThreads, authenticationThreads, 0, TimeUnit.MILLISECONDS, 
+					new ArrayBlockingQueue<Runnable>(Math.max(1, MAX_CLIENTS)), ThreadFactories.named(threadFactory, "authenticate"));
+		}
+		
 		// Start a new thread to listen for new clients
 		listening = true;
-		listenThread = new Thread(new ServerListener(), "listen");
-		listenThread.start();
+		if (engine != null) {
+			engine.start();
+			listenThread = ThreadFactories.start(threadFactory, engine, "listen");
+		}
+		else listenThread = ThreadFactories.start(threadFactory, new ServerListener(), "listen");
 		
 		// Start a new thread to poll all existing client connections
 		polling = true;
-		pollThread = new Thread(new ClientConnectionPoller(), "poll");
-		pollThread.start();
+		pollThread = ThreadFactories.start(threadFactory, new ClientConnectionPoller(), "poll");
 		
 		//Start a new thread to listen to user commands
 		interpreter = new ConsoleServerInterpreter(this);
-		interpreterThread = new Thread((ServerInterpreter) interpreter, "interpret");
-		interpreterThread.start();
+		interpreterThread = ThreadFactories.start(threadFactory, (ServerInterpreter) interpreter, "interpret");
 	}
 	
 	
@@ -124,7 +222,11 @@ public abstract class Server implements Runnable {
 	 */
 	private boolean createSocket() {
 		try {
-			serverSocket = new ServerSocket(port);
+			if (selectorThreads > 0) {
+				engine = new SelectorEngine(this, selectorThreads);
+				serverSocket = engine.open(port);
+			}
+			else serverSocket = new ServerSocket(port);
 		} catch (IOException e) {
 			e.printStackTrace();
 			return false;
@@ -134,11 +236,63 @@ public abstract class Server implements Runnable {
 	
 	
 	/**
-	 * Handler for when a client is polled
+	 * Handler for when a client is polled.
+	 * This is called for every client once each maintenance interval.
 	 * @param client
 	 */
 	protected abstract void pollClient(ClientConnection client);
 	
+	
+	/**
+	 * Called when a client has been accepted and has started its authentication handshake.
+	 * This method can be overridden to perform tasks when a client connects.
+	 * @param client
+	 */
+	protected void clientConnected(ClientConnection client) { }
+	
+	
+	/**
+	 * Called when a client has been authenticated.
+	 * This method can be overridden to perform tasks when a client joins the server.
+	 * @param client
+	 */
+	protected void clientAuthenticated(ClientConnection client) { }
+	
+	
+	/**
+	 * Called when a client connection has been terminated, after it has been removed from the client registry.
+	 * This method can be overridden to perform tasks when a client leaves the server.
+	 * @param client
+	 */
+	protected void clientTerminated(ClientConnection client) { }
+	
+	
+	/**
+	 * Passes the lifecycle events of every client connection to the server.
+	 * @author bwyap
+	 *
+	 */
+	private class Lifecycle implements ConnectionListener {
+		@Override
+		public void connected(ClientConnection client) {
+			clientConnected(client);
+		}
+
+		@Override
+		public void authenticated(ClientConnection client) {
+			endHandshake(client);
+			clients.authenticated(client);
+			clientAuthenticated(client);
+		}
+
+		@Override
+		public void terminated(ClientConnection client) {
+			endHandshake(client);
+			clients.remove(client);
+			clientTerminated(client);
+		}
+	}
+	
 
 	/**
 	 * Listens to the server's assigned port for any new connections from clients.
@@ -156,21 +310,7 @@ public abstract class Server implements Runnable {
 					serverSocket.setSoTimeout(5000);
 					Socket socket = serverSocket.accept();
 					ClientConnection client = createClientConnection(SERVERID, socket, logger, authenticator, interpreter);
-					
-					// Check if exceeding connected clients
-					if (clients.size() >= MAX_CLIENTS) {
-						logger.pushCon("Client tried to connect: " + socket.getInetAddress() + ":" + socket.getPort());
-						logger.pushCon("SERVER FULL: " + socket.getInetAddress() + ":" + socket.getPort() + " kicked");
-						client.sendToClient(authenticator.generateServerFullMessage());
-						client.state = ConnectionState.DISCONNECTING;
-					}
-					else {
-						// Add client to connected clients
-						clients.add(client);
-						logger.pushCon("New connection from " + socket.getInetAddress() + ":" + socket.getPort());
-					}
-					
-					client.start();
+					if (admit(client, socket)) client.start();
 				} 
 				catch (SocketTimeoutException e) {
 					//Socket timeout is expected.
@@ -190,6 +330,141 @@ public abstract class Server implements Runnable {
 	}
 	
 	
+	/**
+	 * Configures a newly accepted client and adds it to the client registry.
+	 * If the server is full, the client is sent a server full message and is disconnected instead.
+	 * If its address already has too many handshakes in progress, the socket is closed straight away.
+	 * @param client
+	 * @param socket
+	 * @return false if the socket was closed and the connection should not be started
+	 */
+	boolean admit(ClientConnection client, Socket socket) {
+		if (!beginHandshake(client, socket.getInetAddress())) {
+			logger.pushCon("Too many handshakes from " + socket.getInetAddress() + ": " + socket.getPort() + " rejected");
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return false;
+		}
+		
+		client.setConnectionListener(lifecycle);
+		client.setThreadFactory(threadFactory);
+		client.setResetPolicy(resetPolicy);
+		client.setFlushPolicy(flushPolicy);
+		client.setPreferredCodecs(preferredCodecs);
+		client.setOutboundLimit(outboundLimit, overflowPolicy);
+		if (ringCapacity > 0) client.setIncomingQueue(new RingMessageQueue(ringCapacity, waitStrategy));
+		if (dispatchPool != null) client.setDispatcher(new SerialExecutor(dispatchPool));
+		if (authenticationPool != null) client.setAuthenticationExecutor(authenticationPool);
+		if (registry != null) client.setMessageRegistry(registry);
+		if (relay) client.setRelay(clients);
+		if (sessions != null) client.setSessionTable(sessions);
+		
+		// Check if exceeding connected clients
+		if (!clients.add(client, MAX_CLIENTS)) {
+			logger.pushCon("Client tried to connect: " + socket.getInetAddress() + ":" + socket.getPort());
+			logger.pushCon("SERVER FULL: " + socket.getInetAddress() + ":" + socket.getPort() + " kicked");
+			client.sendToClient(authenticator.generateServerFullMessage());
+			client.setState(ConnectionState.DISCONNECTING);
+		}
+		else {
+			logger.pushCon("New connection from " + socket.getInetAddress() + ":" + socket.getPort());
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Starts the deadline for a new client to complete the authentication handshake,
+	 * and counts the handshake against the limit for its address.
+	 * @param client
+	 * @param address
+	 * @return false if the address already has the most handshakes in progress that are allowed
+	 */
+	private boolean beginHandshake(ClientConnection client, InetAddress address) {
+		int pending = pendingHandshakes.merge(address, 1, new BiFunction<Integer, Integer, Integer>() {
+			@Override
+			public Integer apply(Integer count, Integer one) {
+				return count + one;
+			}
+		});
+		if (maxPendingHandshakes > 0 && pending > maxPendingHandshakes) {
+			releaseHandshake(address);
+			return false;
+		}
+		
+		ScheduledFuture<?> deadline = null;
+		if (handshakeTimer != null) deadline = handshakeTimer.schedule(new HandshakeDeadline(client), handshakeTimeout, TimeUnit.MILLISECONDS);
+		handshakes.put(client, new Handshake(address, deadline));
+		return true;
+	}
+	
+	
+	/**
+	 * Stops tracking the handshake of a client once it has been authenticated or disconnected.
+	 * @param client
+	 */
+	private void endHandshake(ClientConnection client) {
+		Handshake handshake = handshakes.remove(client);
+		if (handshake != null) {
+			if (handshake.deadline != null) handshake.deadline.cancel(false);
+			releaseHandshake(handshake.address);
+		}
+	}
+	
+	
+	/**
+	 * Removes a handshake from the count for an address.
+	 * @param address
+	 */
+	private void releaseHandshake(InetAddress address) {
+		pendingHandshakes.computeIfPresent(address, new BiFunction<InetAddress, Integer, Integer>() {
+			@Override
+			public Integer apply(InetAddress address, Integer count) {
+				return count > 1 ? count - 1 : null;
+			}
+		});
+	}
+	
+	
+	/**
+	 * A handshake which is in progress.
+	 * @author bwyap
+	 *
+	 */
+	protected static class Handshake {
+		final InetAddress address;
+		final ScheduledFuture<?> deadline;
+		
+		Handshake(InetAddress address, ScheduledFuture<?> deadline) {
+			this.address = address;
+			this.deadline = deadline;
+		}
+	}
+	
+	
+	/**
+	 * Disconnects a client which has not been authenticated when its handshake deadline passes.
+	 * This runs on the handshake timer, and only closes the connection.
+	 * @author bwyap
+	 *
+	 */
+	private static class HandshakeDeadline implements Runnable {
+		private final ClientConnection client;
+		
+		HandshakeDeadline(ClientConnection client) {
+			this.client = client;
+		}
+		
+		@Override
+		public void run() {
+			client.handshakeExpired();
+		}
+	}
+	
+	
 	/**
 	 * Create a new ClientConnection object.
 	 * This method should be used to instantiate subclasses of ClientConnection.
@@ -203,7 +478,7 @@ public abstract class Server implements Runnable {
 	
 	
 	/**
-	 * Polls all existing client connections for their state
+	 * Polls all existing client connections once every maintenance interval.
 	 * @author Benjamin
 	 *
 	 */
@@ -211,16 +486,44 @@ public abstract class Server implements Runnable {
 		@Override
 		public void run() {
 			while (polling) {
-				for (int i = 0; i < clients.size(); i++) {
-					synchronized (clients) {
-						pollClient(clients.get(i));
-					}
+				for (ClientConnection client : clients) {
+					pollClient(client);
+				}
+				if (sessions != null) sessions.purge();
+				
+				try {
+					Thread.sleep(maintenanceInterval);
+				} catch (InterruptedException e) {
+					// woken up to shut down
 				}
 			}
 		}
 	}
 	
 	
+	/**
+	 * Sends a message to every connected client.
+	 * The message is encoded at most once for each codec in use and the 
+	 * same bytes are written to every client, instead of encoding a copy for each client.
+	 * The message must not be modified after it has been broadcast.
+	 * @param m
+	 * @return the number of clients the message was sent to
+	 */
+	public int broadcast(MessagePacket m) {
+		SharedPacket shared = new SharedPacket(m);
+		int count = 0;
+		
+		for (ClientConnection c : clients) {
+			if (c.getConnectionState() == ConnectionState.CONNECTED) {
+				c.sendToClient(shared);
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	
 	/**
 	 * Safely disconnects all clients and the server down
 	 */
@@ -241,12 +544,177 @@ public abstract class Server implements Runnable {
 		
 		listening = false;
 		polling = false;
+		if (pollThread != null) pollThread.interrupt();
+		if (dispatchPool != null) dispatchPool.shutdown();
+		if (authenticationPool != null) authenticationPool.shutdown();
+		if (handshakeTimer != null) handshakeTimer.shutdownNow();
 		interpreter.stop();
 		
 		logger.pushInfo("Server shutting down.");
 	}
 	
 	
+	/**
+	 * Run the server in selector mode using the given number of event loop threads.
+	 * This must be set before the server is run.
+	 * A value of 0 (the default) runs every connection on its own threads.
+	 * @param threads
+	 */
+	public void setSelectorThreads(int threads) {
+		this.selectorThreads = threads;
+	}
+	
+	
+	/**
+	 * Process messages from all clients on a shared pool with the given number of threads.
+	 * This must be set before the server is run.
+	 * A value of 0 (the default) processes messages on a thread for each client, 
+	 * or on the event loops when the server is in selector mode.
+	 * @param threads
+	 */
+	public void setDispatchThreads(int threads) {
+		this.dispatchThreads = threads;
+	}
+	
+	
+	/**
+	 * Set how long a client has to complete the authentication handshake before it is disconnected.
+	 * The deadline starts when the client is accepted. There is no deadline by default.
+	 * This must be set before the server is run.
+	 * @param millis the number of milliseconds, or 0 for no deadline
+	 */
+	public void setHandshakeTimeout(long millis) {
+		this.handshakeTimeout = millis;
+	}
+	
+	
+	/**
+	 * Set the largest number of clients from the same address that can be in the authentication handshake at once.
+	 * Connections from an address which is at its limit are closed as soon as they are accepted.
+	 * There is no limit by default. This applies to clients that connect after it is set.
+	 * @param limit the limit, or 0 for no limit
+	 */
+	public void setMaxPendingHandshakes(int limit) {
+		this.maxPendingHandshakes = limit;
+	}
+	
+	
+	/**
+	 * Check the credentials of clients on a separate pool with the given number of threads.
+	 * The authenticator's {@code authenticateResponseAsync} is used, so that slow checks do not hold up 
+	 * the event loops or the dispatch pool while other clients are waiting.
+	 * This must be set before the server is run.
+	 * A value of 0 (the default) checks credentials on the thread which received the authentication message.
+	 * @param threads
+	 */
+	public void setAuthenticationThreads(int threads) {
+		this.authenticationThreads = threads;
+	}
+	
+	
+	/**
+	 * Set the number of milliseconds between each time the clients are polled.
+	 * @param millis
+	 */
+	public void setMaintenanceInterval(long millis) {
+		this.maintenanceInterval = millis;
+	}
+	
+	
+	/**
+	 * Set the incoming queue of each client connection to a lock-free ring buffer.
+	 * This only has an effect on connections with their own threads and no dispatch pool.
+	 * This applies to clients that connect after it is set.
+	 * @param capacity the capacity of each buffer, or 0 to use the default queue
+	 * @param strategy how the connection threads wait on the buffer
+	 */
+	public void setRingBuffer(int capacity, WaitStrategy strategy) {
+		this.ringCapacity = capacity;
+		this.waitStrategy = strategy;
+	}
+	
+	
+	/**
+	 * Set the limit on the number of messages waiting to be written to each client,
+	 * and what happens when a message is sent to a client at its limit.
+	 * There is no limit by default.
+	 * This applies to clients that connect after it is set.
+	 * @param limit the limit, or 0 for no limit
+	 * @param policy
+	 */
+	public void setOutboundLimit(int limit, OverflowPolicy policy) {
+		this.outboundLimit = limit;
+		this.overflowPolicy = policy;
+	}
+	
+	
+	/**
+	 * Set the codecs to switch to once a client is authenticated, in order of preference.
+	 * Each client is switched to the first codec it advertised it can decode during authentication.
+	 * Clients using a Java serialization stream, or which did not advertise any capabilities, are not switched.
+	 * By default the binary codec is preferred.
+	 * This applies to clients that connect after it is set.
+	 * @param codecs
+	 */
+	public void setPreferredCodecs(MessageCodec... codecs) {
+		this.preferredCodecs = Arrays.asList(codecs.clone());
+	}
+	
+	
+	/**
+	 * Set whether packets that a client addresses to another connected client are relayed to it.
+	 * Relayed packets go straight to the outbound queue of the receiving client without being handled 
+	 * by the server, and binary frames are forwarded without being encoded again.
+	 * Relaying is disabled by default, so every packet is handled by the server. 
+	 * This applies to clients that connect after it is set.
+	 * @param relay
+	 */
+	public void setRelay(boolean relay) {
+		this.relay = relay;
+	}
+	
+	
+	/**
+	 * Set how long the session of a client whose connection was lost is kept for it to resume.
+	 * Sessions are not kept by default.
+	 * This applies to clients that connect after it is set, and sessions already kept are discarded.
+	 * @param millis the number of milliseconds, or 0 to not keep sessions
+	 */
+	public void setSessionTimeout(long millis) {
+		this.sessions = millis > 0 ? new SessionTable(millis) : null;
+	}
+	
+	
+	/**
+	 * Set the registry of typed messages which are handled for every client.
+	 * This applies to clients that connect after it is set.
+	 * @param registry
+	 */
+	public void setMessageRegistry(MessageRegistry<ClientConnection> registry) {
+		this.registry = registry;
+	}
+	
+	
+	/**
+	 * Set how many queued messages are written to each client before its output is flushed.
+	 * This applies to clients that connect after it is set.
+	 * @param flushPolicy
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+	}
+	
+	
+	/**
+	 * Set the policy for resetting the streams sent to clients using Java serialization.
+	 * This applies to clients that connect after it is set.
+	 * @param resetPolicy
+	 */
+	public void setResetPolicy(ResetPolicy resetPolicy) {
+		this.resetPolicy = resetPolicy;
+	}
+	
+	
 	/**
 	 * Get the ID of the server
 	 * @return
@@ -275,10 +743,10 @@ public abstract class Server implements Runnable {
 	
 	
 	/**
-	 * Get the list of clients connected to the server.
+	 * Get the registry of clients connected to the server.
 	 * @return
 	 */
-	public List<ClientConnection> getClients() {
+	public ClientRegistry getClients() {
 		return clients;
 	}
 	
@@ -0,0 +1,246 @@
+package com.bwyap.network.server;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.bwyap.network.message.MessagePacket;
+
+/**
+ * Holds the sessions of clients whose connection was lost so that they can resume them by reconnecting.
+ * <p>
+ * Every authenticated client is issued a token which names its server assigned ID and is signed
+ * with a key that only this table knows, so a token cannot be forged for another client.
+ * When the connection of a client is lost, its session is kept along with the messages which were
+ * still waiting to be sent to it. A client which presents its token before the session expires
+ * gets back its ID and those messages, without being authenticated again.
+ * Each token resumes a session at most once; the resumed connection is issued a new one.
+ * <p>
+ * Expired sessions are removed by {@code purge}, which the server calls every maintenance interval.
+ * @author bwyap
+ *
+ */
+public class SessionTable {
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int NONCE_LENGTH = 8;
+	private static final int MAC_LENGTH = 16;
+	private static final int TOKEN_LENGTH = 16 + NONCE_LENGTH + MAC_LENGTH;
+	
+	private final ConcurrentHashMap<UUID, Session> sessions = new ConcurrentHashMap<UUID, Session>();
+	private final SecureRandom random = new SecureRandom();
+	private final Mac mac;
+	private final long timeout;
+	
+	
+	/**
+	 * Create a table with a new random signing key.
+	 * @param timeout the number of milliseconds a session is kept after its connection is lost
+	 */
+	public SessionTable(long timeout) {
+		this.timeout = timeout;
+		
+		byte[] key = new byte[32];
+		random.nextBytes(key);
+		try {
+			mac = Mac.getInstance(ALGORITHM);
+			mac.init(new SecretKeySpec(key, ALGORITHM));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Unable to create session keys: " + e.getMessage(), e);
+		}
+	}
+	
+	
+	/**
+	 * Issues a signed token for a client.
+	 * @param id the server assigned ID of the client
+	 * @return
+	 */
+	public String issue(UUID id) {
+		byte[] nonce = new byte[NONCE_LENGTH];
+		random.nextBytes(nonce);
+		
+		ByteBuffer token = ByteBuffer.allocate(TOKEN_LENGTH);
+		token.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).put(nonce);
+		token.put(sign(token.array(), 16 + NONCE_LENGTH));
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+	}
+	
+	
+	/**
+	 * Keeps the session of a client whose connection was lost.
+	 * Tokens which were not issued by this table are ignored.
+	 * @param token the last token issued to the client
+	 * @param clientName
+	 * @param pending the messages still waiting to be sent to the client
+	 */
+	public void suspend(String token, String clientName, List<MessagePacket> pending) {
+		UUID id = verify(token);
+		if (id != null) {
+			sessions.put(id, new Session(id, clientName, token, pending, System.currentTimeMillis() + timeout));
+		}
+	}
+	
+	
+	/**
+	 * Takes the session named by a token out of the table.
+	 * @param token
+	 * @return the session, or null if the token is invalid, has already been used or its session has expired
+	 */
+	public Session resume(String token) {
+		UUID id = verify(token);
+		if (id == null) return null;
+		
+		Session session = sessions.get(id);
+		if (session == null || !session.token.equals(token) || !sessions.remove(id, session)) return null;
+		return session.expiry >= System.currentTimeMillis() ? session : null;
+	}
+	
+	
+	/**
+	 * Puts back a session which was taken out of the table but could not be resumed,
+	 * because the connection resuming it closed first. The session keeps its token and expiry.
+	 * @param session
+	 */
+	public void restore(Session session) {
+		sessions.putIfAbsent(session.id, session);
+	}
+	
+	
+	/**
+	 * Removes every session which has expired.
+	 * @return the number of sessions removed
+	 */
+	public int purge() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		
+		Iterator<Session> it = sessions.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().expiry < now) {
+				it.remove();
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * Checks the signature of a token.
+	 * @param token
+	 * @return the client ID named by the token, or null if it is not valid
+	 */
+	private UUID verify(String token) {
+		if (token == null) return null;
+		
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(token);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (bytes.length != TOKEN_LENGTH) return null;
+		
+		byte[] expected = sign(bytes, 16 + NONCE_LENGTH);
+		byte[] actual = new byte[MAC_LENGTH];
+		System.arraycopy(bytes, 16 + NONCE_LENGTH, actual, 0, MAC_LENGTH);
+		if (!MessageDigest.isEqual(expected, actual)) return null;
+		
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		return new UUID(buffer.getLong(), buffer.getLong());
+	}
+	
+	
+	/**
+	 * Computes the truncated signature of the start of a token.
+	 * @param data
+	 * @param length
+	 * @return
+	 */
+	private synchronized byte[] sign(byte[] data, int length) {
+		mac.update(data, 0, length);
+		byte[] signature = mac.doFinal();
+		byte[] truncated = new byte[MAC_LENGTH];
+		System.arraycopy(signature, 0, truncated, 0, MAC_LENGTH);
+		return truncated;
+	}
+	
+	
+	/**
+	 * Gets the number of sessions waiting to be resumed.
+	 * @return
+	 */
+	public int size() {
+		return sessions.size();
+	}
+	
+	
+	/**
+	 * Gets the number of milliseconds a session is kept after its connection is lost.
+	 * @return
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	
+	/**
+	 * The state of a client which is kept while it is reconnecting.
+	 * @author bwyap
+	 *
+	 */
+	public static class Session {
+		private final UUID id;
+		private final String clientName;
+		private final String token;
+		private final List<MessagePacket> pending;
+		private final long expiry;
+		
+		
+		private Session(UUID id, String clientName, String token, List<MessagePacket> pending, long expiry) {
+			this.id = id;
+			this.clientName = clientName;
+			this.token = token;
+			this.pending = pending;
+			this.expiry = expiry;
+		}
+		
+		
+		/**
+		 * Gets the server assigned ID of the client.
+		 * @return
+		 */
+		public UUID getID() {
+			return id;
+		}
+		
+		
+		/**
+		 * Gets the name the client authenticated with.
+		 * @return
+		 */
+		public String getClientName() {
+			return clientName;
+		}
+		
+		
+		/**
+		 * Gets the messages which were still waiting to be sent to the client when its connection was lost.
+		 * @return
+		 */
+		public List<MessagePacket> getPending() {
+			return pending;
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.bwyap.utility;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A trie which maps string keys to values and counts the values under each prefix.
+ * Several values may share a key.
+ * Adding, removing, counting and resolving a key or prefix take time proportional to 
+ * the length of the key, not to the number of values in the index.
+ * <p>
+ * All methods are synchronized.
+ * @author bwyap
+ *
+ * @param <T>
+ */
+public class PrefixIndex<T> {
+
+	private final Node<T> root = new Node<T>();
+	
+	
+	/**
+	 * Adds a value to the index under the specified key.
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void add(String key, T value) {
+		Node<T> node = root;
+		node.count++;
+		
+		for (int i = 0; i < key.length(); i++) {
+			Node<T> child = node.child(key.charAt(i));
+			if (child == null) {
+				child = new Node<T>();
+				if (node.children == null) node.children = new HashMap<Character, Node<T>>(4);
+				node.children.put(key.charAt(i), child);
+			}
+			node = child;
+			node.count++;
+		}
+		
+		node.values.add(value);
+	}
+	
+	
+	/**
+	 * Removes a value from the index.
+	 * @param key the key the value was added with
+	 * @param value
+	 * @return true if the value was in the index
+	 */
+	public synchronized boolean remove(String key, T value) {
+		Node<T> node = find(key);
+		if (node == null || !node.values.remove(value)) return false;
+		
+		node = root;
+		node.count--;
+		for (int i = 0; i < key.length(); i++) {
+			Node<T> child = node.child(key.charAt(i));
+			if (--child.count == 0) {
+				// Nothing is left below this node
+				node.children.remove(key.charAt(i));
+				break;
+			}
+			node = child;
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Counts the number of values with a key starting with the specified prefix.
+	 * @param prefix
+	 * @return
+	 */
+	public synchronized int count(String prefix) {
+		Node<T> node = find(prefix);
+		return node != null ? node.count : 0;
+	}
+	
+	
+	/**
+	 * Gets the only value with a key starting with the specified prefix.
+	 * @param prefix
+	 * @return the value, or null if there are no values or more than one value with the prefix
+	 */
+	public synchronized T unique(String prefix) {
+		Node<T> node = find(prefix);
+		if (node == null || node.count != 1) return null;
+		
+		// Only one path leads down from here
+		while (node.values.isEmpty()) {
+			node = node.children.values().iterator().next();
+		}
+		return node.values.get(0);
+	}
+	
+	
+	/**
+	 * Gets all values with exactly the specified key.
+	 * @param key
+	 * @return
+	 */
+	public synchronized List<T> get(String key) {
+		Node<T> node = find(key);
+		return node != null ? new ArrayList<T>(node.values) : new ArrayList<T>();
+	}
+	
+	
+	/**
+	 * Finds the node for a key.
+	 * @param key
+	 * @return the node, or null if no key starts with the specified key
+	 */
+	private Node<T> find(String key) {
+		Node<T> node = root;
+		for (int i = 0; i < key.length() && node != null; i++) {
+			node = node.child(key.charAt(i));
+		}
+		return node;
+	}
+	
+	
+	private static class Node<T> {
+		
+		HashMap<Character, Node<T>> children;
+		List<T> values = new ArrayList<T>(1);
+		int count = 0;
+		
+		
+		Node<T> child(char c) {
+			return children != null ? children.get(c) : null;
+		}
+	}
+	
+}
@@ -0,0 +1,53 @@
+package com.bwyap.utility;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor which runs its tasks one at a time, in the order they were submitted, 
+ * on a shared executor. 
+ * Many serial executors can share one thread pool: tasks from the same serial executor never 
+ * run concurrently or out of order, while tasks from different serial executors run in parallel.
+ * @author bwyap
+ *
+ */
+public class SerialExecutor implements Executor {
+
+	private final Executor executor;
+	private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+	private Runnable active;
+	
+	
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+	
+	
+	@Override
+	public synchronized void execute(final Runnable r) {
+		tasks.offer(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					r.run();
+				}
+				finally {
+					scheduleNext();
+				}
+			}
+		});
+		
+		if (active == null) scheduleNext();
+	}
+	
+	
+	/**
+	 * Hands the next task to the shared executor.
+	 */
+	private synchronized void scheduleNext() {
+		if ((active = tasks.poll()) != null) {
+			executor.execute(active);
+		}
+	}
+	
+}
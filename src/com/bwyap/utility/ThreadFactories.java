@@ -0,0 +1,121 @@
+package com.bwyap.utility;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the thread factories that the client and server can use to run their loops.
+ * <p>
+ * <b>Platform threads</b> are the default. Each one is backed by an OS thread, 
+ * and a server running each connection on its own threads holds three of these per client.
+ * <p>
+ * <b>Virtual threads</b> (Java 21 and later) are not backed by an OS thread while they are blocked, 
+ * so they may let a server hold more mostly idle connections. This has not been measured for this 
+ * server, so compare both factories under the expected load before choosing one.
+ * CPU-bound message handling does not get any faster on virtual threads.
+ * <p>
+ * Before Java 24, a virtual thread which blocks inside a {@code synchronized} block or method is pinned 
+ * to its carrier thread. Threads sending to a connection do this when they wait for room in a full outgoing 
+ * queue with the {@code BLOCK} overflow policy, so on those JDKs a few slow clients can tie up every carrier 
+ * and stall all other virtual threads.
+ * <p>
+ * The virtual thread factory is looked up reflectively so that this class still compiles on older JDKs.
+ * On a JVM without virtual threads, platform threads are used instead.
+ * @author bwyap
+ *
+ */
+public final class ThreadFactories {
+
+	private static final ThreadFactory PLATFORM = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r);
+		}
+	};
+	
+	private static final ThreadFactory VIRTUAL = loadVirtual();
+	
+	
+	private ThreadFactories() { }
+	
+	
+	/**
+	 * Gets a factory which creates platform threads.
+	 * @return
+	 */
+	public static ThreadFactory platform() {
+		return PLATFORM;
+	}
+	
+	
+	/**
+	 * Gets a factory which creates virtual threads.
+	 * If the JVM does not support virtual threads, a platform thread factory is returned.
+	 * @return
+	 */
+	public static ThreadFactory virtual() {
+		return VIRTUAL != null ? VIRTUAL : PLATFORM;
+	}
+	
+	
+	/**
+	 * Checks whether the JVM supports virtual threads.
+	 * @return
+	 */
+	public static boolean isVirtualAvailable() {
+		return VIRTUAL != null;
+	}
+	
+	
+	/**
+	 * Wraps a factory so that the threads it creates are named with a prefix and a number.
+	 * @param factory
+	 * @param prefix
+	 * @return
+	 */
+	public static ThreadFactory named(final ThreadFactory factory, final String prefix) {
+		final AtomicInteger count = new AtomicInteger(0);
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = factory.newThread(r);
+				thread.setName(prefix + "-" + count.getAndIncrement());
+				return thread;
+			}
+		};
+	}
+	
+	
+	/**
+	 * Creates a thread with the given factory, names it and starts it.
+	 * @param factory
+	 * @param r
+	 * @param name
+	 * @return the started thread
+	 */
+	public static Thread start(ThreadFactory factory, Runnable r, String name) {
+		Thread thread = factory.newThread(r);
+		thread.setName(name);
+		thread.start();
+		return thread;
+	}
+	
+	
+	/**
+	 * Looks up {@code Thread.ofVirtual().factory()}.
+	 * @return the factory, or null if virtual threads are not supported
+	 */
+	private static ThreadFactory loadVirtual() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Method factory = ofVirtual.getReturnType().getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+	
+}
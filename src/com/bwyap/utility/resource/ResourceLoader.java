@@ -16,6 +16,7 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import com.bwyap.network.authenticator.CredentialFile;
 import com.bwyap.network.resource.Resource;
 import com.bwyap.utility.StreamLogger;
 import com.bwyap.utility.interpreter.Command;
@@ -56,6 +57,32 @@ public class ResourceLoader {
 	}
 	
 	
+	/**
+	 * Opens a credential file on disk.
+	 * The file is mapped rather than read, so this is quick however many users it holds.
+	 * @param file <tt>File</tt> which describes the location of the physical file
+	 * @return the credentials, or null if the file does not exist or is not a valid credential file
+	 */
+	public static CredentialFile loadCredentials(File file) {
+		if (!file.exists()) {
+			log("Credential file <" + file.getName() + "> not found.");
+			return null;
+		}
+		
+		try {
+			long start = System.nanoTime();
+			CredentialFile credentials = new CredentialFile(file);
+			log("Loaded " + credentials.size() + " users from <" + file.getName() + "> in " + (System.nanoTime() - start) / 1000000 + "ms.");
+			return credentials;
+		}
+		catch (IOException e) {
+			log("An error occurred while trying to load credential file <" + file.getName() + ">.");
+			printStackTrace(e);
+			return null;
+		}
+	}
+	
+	
 	/**
 	 * Reads an internal CSV file from within the jar and loads the data into a hash map.
 	 * @param path